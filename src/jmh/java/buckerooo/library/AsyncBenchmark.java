@@ -0,0 +1,113 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/*
+ * borrow and hand straight back, blocking against async. the threaded ones have every thread wait for its own
+ * answer, inFlight is one caller with lots of borrows outstanding at once like an async request handler would have.
+ * default is virtual threads where the jdk has them and a fixed pool where it doesn't
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AsyncBenchmark {
+    private static final int IN_FLIGHT = 256;
+
+    @Param({"default", "commonPool"})
+    public String executor;
+
+    private Library library;
+    private AsyncLibrary async;
+    private int numberOfTitles;
+
+    @Setup
+    public void createLibrary() {
+        library = new Library(Clock.systemUTC(), Catalogue.items(100_000, 10));
+        async = new AsyncLibrary(library, executor.equals("default") ? AsyncLibrary.defaultExecutor() : ForkJoinPool.commonPool());
+        numberOfTitles = Catalogue.titles(100_000, 10);
+    }
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        final User user = User.user("borrower " + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void blocking4Threads(Borrower borrower, Blackhole blackhole) throws Exception {
+        blocking(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void blocking64Threads(Borrower borrower, Blackhole blackhole) throws Exception {
+        blocking(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void async4Threads(Borrower borrower, Blackhole blackhole) {
+        blackhole.consume(borrowAndReturn(borrower).join());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void async64Threads(Borrower borrower, Blackhole blackhole) {
+        blackhole.consume(borrowAndReturn(borrower).join());
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(IN_FLIGHT)
+    public void asyncInFlight(Borrower borrower, Blackhole blackhole) {
+        CompletableFuture<?>[] inFlight = new CompletableFuture<?>[IN_FLIGHT];
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            inFlight[i] = borrowAndReturn(borrower);
+        }
+        blackhole.consume(CompletableFuture.allOf(inFlight).join());
+    }
+
+    private void blocking(Borrower borrower, Blackhole blackhole) throws Exception {
+        try {
+            Receipt receipt = library.borrowItem(nextTitle(), Book, borrower.user);
+            library.returnItem(receipt.item);
+            blackhole.consume(receipt);
+        } catch (ItemOutOfStockException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    private CompletableFuture<Result<Item>> borrowAndReturn(Borrower borrower) {
+        return async.borrowItem(nextTitle(), Book, borrower.user)
+                .thenCompose(borrowed -> borrowed.isOk() ? async.returnItem(borrowed.value.item) : completedFuture(null));
+    }
+
+    private String nextTitle() {
+        return Catalogue.title(ThreadLocalRandom.current().nextInt(numberOfTitles));
+    }
+}
@@ -0,0 +1,35 @@
+package buckerooo.library;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/* lets the benchmarks make loans in the past so there is something overdue to find */
+class BenchmarkClock extends Clock {
+    private volatile Instant now = Instant.now();
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneId.systemDefault();
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return Clock.fixed(now, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        return now;
+    }
+
+    void moveBack(long days) {
+        now = now.minus(days, DAYS);
+    }
+
+    void moveForward(long days) {
+        now = now.plus(days, DAYS);
+    }
+}
@@ -0,0 +1,59 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/*
+ * what one borrow and return costs in garbage, run it with the gc profiler and read gc.alloc.rate.norm:
+ *
+ *   ./gradlew jmh -Pjmh='BorrowAllocationBenchmark -prof gc'
+ *
+ * the titles are made up front so the only allocations left are the library's own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BorrowAllocationBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int copiesPerTitle;
+
+    private Library library;
+    private final User user = User.user("buck");
+    private String[] titles;
+    private int next;
+
+    @Setup
+    public void createLibrary() {
+        library = new Library(Clock.systemUTC(), Catalogue.items(100_000, copiesPerTitle));
+
+        titles = new String[1_024];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = Catalogue.title(i % Catalogue.titles(100_000, copiesPerTitle));
+        }
+    }
+
+    @Benchmark
+    public Receipt borrowAndReturn() throws Exception {
+        Receipt receipt = library.borrowItem(titles[next++ & (titles.length - 1)], Book, user);
+        library.returnItem(receipt.item);
+        return receipt;
+    }
+}
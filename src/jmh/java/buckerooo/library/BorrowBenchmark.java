@@ -0,0 +1,118 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Clock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/*
+ * hot means every thread wants the same title, cold means each borrow picks a title at random.
+ * each benchmark borrows a copy and hands it straight back so the library never runs dry,
+ * the lending group splits the two so borrow and return get a score each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BorrowBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int catalogueSize;
+
+    @Param({"1", "10", "100"})
+    public int copiesPerTitle;
+
+    @Param({"hot", "cold"})
+    public String titles;
+
+    private Library library;
+    private int numberOfTitles;
+    private final Queue<Receipt> borrowed = new ConcurrentLinkedQueue<>();
+
+    @Setup
+    public void createLibrary() {
+        library = new Library(Clock.systemUTC(), Catalogue.items(catalogueSize, copiesPerTitle));
+        numberOfTitles = Catalogue.titles(catalogueSize, copiesPerTitle);
+    }
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        final User user = User.user("borrower " + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrowAndReturn1Thread(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void borrowAndReturn4Threads(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void borrowAndReturn16Threads(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Group("lending")
+    @GroupThreads(2)
+    public void borrowItem(Borrower borrower, Blackhole blackhole) throws Exception {
+        try {
+            borrowed.offer(library.borrowItem(nextTitle(), Book, borrower.user));
+        } catch (ItemOutOfStockException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    @Group("lending")
+    @GroupThreads(2)
+    public void returnItem(Blackhole blackhole) throws Exception {
+        Receipt receipt = borrowed.poll();
+        if (receipt != null) {
+            library.returnItem(receipt.item);
+        }
+        blackhole.consume(receipt);
+    }
+
+    private void borrowAndReturn(Borrower borrower, Blackhole blackhole) throws Exception {
+        try {
+            Receipt receipt = library.borrowItem(nextTitle(), Book, borrower.user);
+            library.returnItem(receipt.item);
+            blackhole.consume(receipt);
+        } catch (ItemOutOfStockException e) {
+            /* everyone is after the same few copies, that's part of what we are measuring */
+            blackhole.consume(e);
+        }
+    }
+
+    private String nextTitle() {
+        return Catalogue.title(titles.equals("hot") ? 0 : ThreadLocalRandom.current().nextInt(numberOfTitles));
+    }
+}
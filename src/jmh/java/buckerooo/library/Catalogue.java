@@ -0,0 +1,26 @@
+package buckerooo.library;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static buckerooo.library.Item.book;
+
+/* made up catalogues for the benchmarks, every title has the same number of copies */
+class Catalogue {
+
+    static List<Item> items(int size, int copiesPerTitle) {
+        List<Item> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(book(String.valueOf(i), String.valueOf(i / copiesPerTitle), title(i / copiesPerTitle)));
+        }
+        return items;
+    }
+
+    static int titles(int size, int copiesPerTitle) {
+        return (size + copiesPerTitle - 1) / copiesPerTitle;
+    }
+
+    static String title(int title) {
+        return "title " + title;
+    }
+}
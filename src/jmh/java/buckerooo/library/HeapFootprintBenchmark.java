@@ -0,0 +1,78 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Clock;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/*
+ * how much heap each copy costs once the library is built, printed after every iteration as bytes per copy. the
+ * time is just how long it took to build.
+ *
+ * "keepingItems" holds on to every Item the catalogue was made from as well, which is what the library did
+ * before copies shared a Work: a StockItem pointing at its own Item, with whatever strings that Item came with.
+ * the Item[] holding them adds 4 bytes a copy that the old StockItem's reference would have taken instead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HeapFootprintBenchmark {
+
+    @Param({"1000000"})
+    public int catalogueSize;
+
+    @Param({"1", "10", "100"})
+    public int copiesPerTitle;
+
+    @Param({"library", "keepingItems"})
+    public String layout;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private long before;
+    private Object kept;
+
+    @Setup(Level.Iteration)
+    public void measureBefore() {
+        kept = null;
+        before = usedHeap();
+    }
+
+    @Benchmark
+    public Object build() {
+        List<Item> items = Catalogue.items(catalogueSize, copiesPerTitle);
+        Library library = new Library(Clock.systemUTC(), items);
+        kept = layout.equals("keepingItems") ? new Object[]{library, items.toArray(new Item[0])} : library;
+        return kept;
+    }
+
+    @TearDown(Level.Iteration)
+    public void measureAfter() {
+        System.out.printf("%n%.1f bytes per copy%n", (usedHeap() - before) / (double) catalogueSize);
+    }
+
+    private long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,104 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/*
+ * what writing every borrow and return down costs. off is the library on its own, journal forces each one to
+ * disk before it returns. with more threads a force takes more of them with it, so the gap should close.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JournalBenchmark {
+
+    @Param({"off", "journal"})
+    public String durability;
+
+    private Path directory;
+    private LoanJournal journal;
+    private Library library;
+    private int numberOfTitles;
+
+    @Setup
+    public void createLibrary() throws IOException {
+        Library.Builder builder = Library.builder(Clock.systemUTC()).addAll(Catalogue.items(100_000, 10));
+        if (durability.equals("journal")) {
+            directory = Files.createTempDirectory("journal-benchmark");
+            journal = LoanJournal.open(directory);
+            builder.journal(journal);
+        }
+        library = builder.build();
+        numberOfTitles = Catalogue.titles(100_000, 10);
+    }
+
+    @TearDown
+    public void deleteJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        final User user = User.user("borrower " + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrowAndReturn1Thread(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void borrowAndReturn4Threads(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void borrowAndReturn16Threads(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    private void borrowAndReturn(Borrower borrower, Blackhole blackhole) throws Exception {
+        try {
+            String title = Catalogue.title(ThreadLocalRandom.current().nextInt(numberOfTitles));
+            Receipt receipt = library.borrowItem(title, Book, borrower.user);
+            library.returnItem(receipt.item);
+            blackhole.consume(receipt);
+        } catch (ItemOutOfStockException e) {
+            blackhole.consume(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LibraryConstructionBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int catalogueSize;
+
+    @Param({"1", "10", "100"})
+    public int copiesPerTitle;
+
+    private final Clock clock = Clock.systemUTC();
+    private List<Item> items;
+    private Path catalogueFile;
+
+    @Setup
+    public void createCatalogue() throws IOException {
+        items = Catalogue.items(catalogueSize, copiesPerTitle);
+        catalogueFile = Files.createTempFile("catalogue", ".bin");
+        CatalogueFile.write(catalogueFile, items);
+    }
+
+    @TearDown
+    public void deleteCatalogueFile() throws IOException {
+        Files.delete(catalogueFile);
+    }
+
+    @Benchmark
+    public Library fromAList() {
+        return new Library(clock, items);
+    }
+
+    @Benchmark
+    public Library fromRawRows() {
+        Library.Builder builder = Library.builder(clock);
+        for (int i = 0; i < catalogueSize; i++) {
+            builder.add(String.valueOf(i), String.valueOf(i / copiesPerTitle), ItemType.Book, Catalogue.title(i / copiesPerTitle));
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public Library fromACatalogueFile() throws IOException {
+        return CatalogueFile.read(catalogueFile, Library.builder(clock)).build();
+    }
+}
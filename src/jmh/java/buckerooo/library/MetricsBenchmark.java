@@ -0,0 +1,74 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Clock;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/* what measuring every borrow and return costs, off should score the same as BorrowBenchmark */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MetricsBenchmark {
+
+    @Param({"off", "stats"})
+    public String metrics;
+
+    private Library library;
+    private int numberOfTitles;
+
+    @Setup
+    public void createLibrary() {
+        library = Library.builder(Clock.systemUTC())
+                .addAll(Catalogue.items(100_000, 10))
+                .metrics(metrics.equals("stats") ? new LibraryStats() : LibraryMetrics.NONE)
+                .build();
+        numberOfTitles = Catalogue.titles(100_000, 10);
+    }
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        final User user = User.user("borrower " + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrowAndReturn1Thread(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void borrowAndReturn4Threads(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    private void borrowAndReturn(Borrower borrower, Blackhole blackhole) throws Exception {
+        try {
+            String title = Catalogue.title(ThreadLocalRandom.current().nextInt(numberOfTitles));
+            Receipt receipt = library.borrowItem(title, Book, borrower.user);
+            library.returnItem(receipt.item);
+            blackhole.consume(receipt);
+        } catch (ItemOutOfStockException e) {
+            blackhole.consume(e);
+        }
+    }
+}
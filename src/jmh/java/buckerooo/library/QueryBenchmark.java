@@ -0,0 +1,124 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/* a tenth of the copies are out, half of those were borrowed long enough ago to be overdue */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+
+    private static final int USERS = 1_000;
+
+    @Param({"100000", "1000000"})
+    public int catalogueSize;
+
+    @Param({"1", "10", "100"})
+    public int copiesPerTitle;
+
+    private Library library;
+
+    @Setup
+    public void createLibrary() throws Exception {
+        BenchmarkClock clock = new BenchmarkClock();
+        library = new Library(clock, Catalogue.items(catalogueSize, copiesPerTitle));
+
+        int copiesToBorrow = catalogueSize / 10;
+        clock.moveBack(30);
+        for (int i = 0; i < copiesToBorrow; i++) {
+            if (i == copiesToBorrow / 2) {
+                clock.moveForward(30);
+            }
+            int title = (int) ((long) i * Catalogue.titles(catalogueSize, copiesPerTitle) / copiesToBorrow);
+            try {
+                library.borrowItem(Catalogue.title(title), Book, User.user("user " + i % USERS));
+            } catch (ItemOutOfStockException ignore) {
+                /* a title with only a few copies can run out, that's fine */
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Item> currentInventory() {
+        return library.currentInventory();
+    }
+
+    @Benchmark
+    public List<Item> inventoryPage() {
+        return library.currentInventory(catalogueSize / 2, 50);
+    }
+
+    @Benchmark
+    public long inventoryCount() {
+        return library.inventoryCount();
+    }
+
+    @Benchmark
+    public List<Item> overdueItems() {
+        return library.overdueItems();
+    }
+
+    /* how the notice job used to group them, an item doesn't say who has it so every user is asked what they have */
+    @Benchmark
+    public int overdueNoticesByUserLookup() {
+        Set<Item> overdue = new HashSet<>(library.overdueItems());
+        int items = 0;
+        for (int i = 0; i < USERS; i++) {
+            for (Item item : library.borrowedItems(User.user("user " + i))) {
+                if (overdue.contains(item)) {
+                    items++;
+                }
+            }
+        }
+        return items;
+    }
+
+    @Benchmark
+    public int overdueNotices() {
+        int items = 0;
+        for (Iterator<List<OverdueNotice>> batches = library.overdueNotices(100); batches.hasNext(); ) {
+            for (OverdueNotice notice : batches.next()) {
+                items += notice.items.size();
+            }
+        }
+        return items;
+    }
+
+    @Benchmark
+    public List<Item> borrowedItems() {
+        return library.borrowedItems(User.user("user 7"));
+    }
+
+    /* every title starts "title ", so this is one binary search and the 10 after it */
+    @Benchmark
+    public List<TitleMatch> titlesStartingWith() {
+        return library.titlesStartingWith("title 12", 10);
+    }
+
+    /* "title" is in every title, the search walks the short list for "12" and checks the long one */
+    @Benchmark
+    public List<TitleMatch> searchTitles() {
+        return library.searchTitles("12 title", 10);
+    }
+}
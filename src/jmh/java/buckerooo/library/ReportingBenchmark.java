@@ -0,0 +1,95 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/*
+ * borrowers borrow a random title and hand it straight back while one thread runs a report over and over: the
+ * inventory and the overdue list read straight from the library, or both from one snapshot, or no report at
+ * all for comparison. the borrow score is what we care about, the report score says what each report costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportingBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int catalogueSize;
+
+    @Param({"none", "live", "snapshot"})
+    public String report;
+
+    private Library library;
+    private int numberOfTitles;
+
+    @Setup
+    public void createLibrary() throws Exception {
+        BenchmarkClock clock = new BenchmarkClock();
+        library = new Library(clock, Catalogue.items(catalogueSize, 10));
+        numberOfTitles = Catalogue.titles(catalogueSize, 10);
+
+        /* some copies out for weeks, so the overdue list has something in it */
+        clock.moveBack(30);
+        for (int title = 0; title < numberOfTitles; title += 20) {
+            library.borrowItem(Catalogue.title(title), Book, User.user("reader " + title % 1_000));
+        }
+        clock.moveForward(30);
+    }
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        final User user = User.user("borrower " + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Group("reporting")
+    @GroupThreads(3)
+    public void borrowAndReturn(Borrower borrower, Blackhole blackhole) throws Exception {
+        try {
+            Receipt receipt = library.borrowItem(Catalogue.title(ThreadLocalRandom.current().nextInt(numberOfTitles)), Book, borrower.user);
+            library.returnItem(receipt.item);
+            blackhole.consume(receipt);
+        } catch (ItemOutOfStockException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    @Group("reporting")
+    @GroupThreads(1)
+    public void report(Blackhole blackhole) {
+        switch (report) {
+            case "live":
+                blackhole.consume(library.currentInventory());
+                blackhole.consume(library.overdueItems());
+                break;
+            case "snapshot":
+                LibrarySnapshot snapshot = library.snapshot();
+                blackhole.consume(snapshot.currentInventory());
+                blackhole.consume(snapshot.overdueItems());
+                break;
+            default:
+                blackhole.consume(report);
+        }
+    }
+}
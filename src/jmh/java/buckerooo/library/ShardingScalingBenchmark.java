@@ -0,0 +1,107 @@
+package buckerooo.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Clock;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static buckerooo.library.ItemType.Book;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/*
+ * borrow and return throughput from 1 to 32 threads, a single Library (shards = 0) against ShardedLibrary.
+ * titles are picked at random so the threads spread across the shards. only worth running on a box with
+ * at least as many cores as threads, compare the scores down each column.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ShardingScalingBenchmark {
+
+    @Param({"0", "4", "16", "32"})
+    public int shards;
+
+    @Param({"1000000"})
+    public int catalogueSize;
+
+    @Param({"10"})
+    public int copiesPerTitle;
+
+    private LendingLibrary library;
+    private int numberOfTitles;
+
+    @Setup
+    public void createLibrary() {
+        library = shards == 0
+                ? new Library(Clock.systemUTC(), Catalogue.items(catalogueSize, copiesPerTitle))
+                : new ShardedLibrary(Clock.systemUTC(), Catalogue.items(catalogueSize, copiesPerTitle), shards);
+        numberOfTitles = Catalogue.titles(catalogueSize, copiesPerTitle);
+    }
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        final User user = User.user("borrower " + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads01(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void threads02(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads04(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads08(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void threads32(Borrower borrower, Blackhole blackhole) throws Exception {
+        borrowAndReturn(borrower, blackhole);
+    }
+
+    private void borrowAndReturn(Borrower borrower, Blackhole blackhole) throws Exception {
+        String title = Catalogue.title(ThreadLocalRandom.current().nextInt(numberOfTitles));
+        try {
+            Receipt receipt = library.borrowItem(title, Book, borrower.user);
+            library.returnItem(receipt.item);
+            blackhole.consume(receipt);
+        } catch (ItemOutOfStockException e) {
+            blackhole.consume(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package buckerooo.library;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/*
+ * the library for callers that would rather not block. every call runs on the executor and the future completes
+ * with a Result, so running out of stock or asking for something we don't have isn't an exception. anything
+ * really going wrong, like the journal failing to write, still completes the future exceptionally
+ */
+public class AsyncLibrary {
+    private final LendingLibrary library;
+    private final Executor executor;
+
+    public AsyncLibrary(LendingLibrary library) {
+        this(library, defaultExecutor());
+    }
+
+    public AsyncLibrary(LendingLibrary library, Executor executor) {
+        this.library = library;
+        this.executor = executor;
+    }
+
+    /*
+     * a virtual thread per call where the jdk has them, looked up by reflection so we still build for java 8.
+     * otherwise a pool with a few threads per core, more than the cpus because a journaled borrow waits on the disk.
+     * there is only ever one, made the first time it's asked for and shared by every AsyncLibrary using it
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutor.EXECUTOR;
+    }
+
+    private static Executor newDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4, daemonThreads());
+        }
+    }
+
+    public CompletableFuture<Result<Receipt>> borrowItem(String title, ItemType type, User user) {
+        return call(() -> library.borrowItem(title, type, user));
+    }
+
+    public CompletableFuture<Result<List<Receipt>>> borrowItems(List<BasketItem> basket, User user) {
+        return call(() -> library.borrowItems(basket, user));
+    }
+
+    /*
+     * completes once a copy has been lent to the user, which may be a long time after the call. cancelling it
+     * gives up the place in the queue, the same as cancelling the library's own hold
+     */
+    public CompletableFuture<Result<Receipt>> placeHold(String title, ItemType type, User user) {
+        CompletableFuture<Result<Receipt>> receipt = new CompletableFuture<>();
+        call(() -> library.placeHold(title, type, user)).whenComplete((hold, failure) -> {
+            if (failure != null) {
+                receipt.completeExceptionally(failure);
+            } else if (!hold.isOk()) {
+                receipt.complete(hold.failure());
+            } else {
+                receipt.whenComplete((result, cancelled) -> {
+                    if (receipt.isCancelled()) {
+                        hold.value.cancel(false);
+                    }
+                });
+                hold.value.whenComplete((lent, holdFailure) -> {
+                    if (holdFailure instanceof BorrowLimitException) {
+                        /* they borrowed up to their limit while they waited */
+                        receipt.complete(Result.limitReached((BorrowLimitException) holdFailure));
+                    } else if (holdFailure != null) {
+                        receipt.completeExceptionally(holdFailure);
+                    } else if (!receipt.complete(Result.ok(lent))) {
+                        /* they cancelled after the library had lent it to them */
+                        giveBack(lent.item);
+                    }
+                });
+            }
+        });
+        return receipt;
+    }
+
+    public CompletableFuture<Result<Item>> returnItem(Item item) {
+        return call(() -> {
+            library.returnItem(item);
+            return item;
+        });
+    }
+
+    public CompletableFuture<Result<Integer>> availableCopies(String title, ItemType type) {
+        return call(() -> library.availableCopies(title, type));
+    }
+
+    public CompletableFuture<List<Item>> currentInventory() {
+        return supplyAsync(library::currentInventory, executor);
+    }
+
+    public CompletableFuture<List<Item>> overdueItems() {
+        return supplyAsync(library::overdueItems, executor);
+    }
+
+    public CompletableFuture<List<Item>> borrowedItems(User user) {
+        return supplyAsync(() -> library.borrowedItems(user), executor);
+    }
+
+    private void giveBack(Item item) {
+        try {
+            library.returnItem(item);
+        } catch (ItemNotFoundException e) {
+            /* it was lent from this library so it's always found */
+        }
+    }
+
+    private <T> CompletableFuture<Result<T>> call(LibraryCall<T> call) {
+        return supplyAsync(() -> {
+            try {
+                return Result.ok(call.call());
+            } catch (ItemNotFoundException e) {
+                return Result.notFound(e);
+            } catch (ItemOutOfStockException e) {
+                return Result.outOfStock(e);
+            } catch (BorrowLimitException e) {
+                return Result.limitReached(e);
+            }
+        }, executor);
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger threads = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "library-async-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class DefaultExecutor {
+        static final Executor EXECUTOR = newDefaultExecutor();
+    }
+
+    private interface LibraryCall<T> {
+        T call() throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException;
+    }
+}
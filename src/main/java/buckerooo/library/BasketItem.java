@@ -0,0 +1,16 @@
+package buckerooo.library;
+
+/* one line of a basket handed to Library.borrowItems, the same title can be in there more than once */
+public class BasketItem {
+    public final String title;
+    public final ItemType type;
+
+    public BasketItem(String title, ItemType type) {
+        this.title = title;
+        this.type = type;
+    }
+
+    public static BasketItem basketItem(String title, ItemType type) {
+        return new BasketItem(title, type);
+    }
+}
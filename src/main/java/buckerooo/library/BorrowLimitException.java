@@ -0,0 +1,12 @@
+package buckerooo.library;
+
+public class BorrowLimitException extends Exception {
+
+    private BorrowLimitException(String message) {
+        super(message);
+    }
+
+    public static BorrowLimitException borrowLimitReached(User user, int out, int wanted, int limit) {
+        return new BorrowLimitException(user.username + " already has " + out + " item(s) out, so can't borrow " + wanted + " more without going over their limit of " + limit);
+    }
+}
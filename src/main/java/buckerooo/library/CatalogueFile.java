@@ -0,0 +1,252 @@
+package buckerooo.library;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/*
+ * the catalogue as one file that can be mapped straight in, instead of a row of four strings per copy.
+ *
+ * titles and book ids are written once each into a dictionary and the copies refer to them by number. copies
+ * come grouped by title, so loading hands the builder a whole title at a time and never has to look one up.
+ * everything is big endian.
+ *
+ *   [int magic][int version][int strings][int copies][int groups]
+ *   [int offset] * (strings + 1)   [utf8 dictionary]
+ *   [int offset] * (copies + 1)    [utf8 unique ids]
+ *   ([int title][byte type][int copies] [int book id] * copies) * groups
+ *
+ * the offsets are from the start of the bytes that follow them.
+ */
+public class CatalogueFile {
+    private static final int MAGIC = 0x4341544C;
+    private static final int VERSION = 1;
+    private static final int HEADER = 5 * 4;
+
+    private CatalogueFile() {
+    }
+
+    public static void write(Path file, Iterable<Item> items) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        StringTable strings = new StringTable();
+        StringTable uniqueIds = new StringTable();
+        Collection<List<Item>> groups = groupByTitle(items);
+
+        int copies = 0;
+        ByteArrayOutputStream groupBytes = new ByteArrayOutputStream();
+        DataOutputStream groupOut = new DataOutputStream(groupBytes);
+        for (List<Item> group : groups) {
+            Item first = group.get(0);
+            groupOut.writeInt(strings.indexOf(first.title, dictionary));
+            groupOut.writeByte(first.type.ordinal());
+            groupOut.writeInt(group.size());
+            for (Item item : group) {
+                groupOut.writeInt(strings.indexOf(item.bookId, dictionary));
+                uniqueIds.add(item.uniqueId);
+            }
+            copies += group.size();
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            out.writeInt(copies);
+            out.writeInt(groups.size());
+            strings.writeTo(out);
+            uniqueIds.writeTo(out);
+            groupBytes.writeTo(out);
+        }
+    }
+
+    /* adds every copy in the file to the builder, each title and book id is only turned into a String once */
+    public static Library.Builder read(Path file, Library.Builder builder) throws IOException {
+        ByteBuffer catalogue = map(file);
+        if (catalogue.capacity() < HEADER || catalogue.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a catalogue file");
+        }
+        if (catalogue.getInt(4) != VERSION) {
+            throw new IOException(file + " is version " + catalogue.getInt(4) + " of the catalogue format, we can only read " + VERSION);
+        }
+
+        int numberOfStrings = catalogue.getInt(8);
+        int copies = catalogue.getInt(12);
+        int groups = catalogue.getInt(16);
+        if (numberOfStrings < 0 || copies < 0 || groups < 0) {
+            throw corrupt(file, 8, "the header says there are " + numberOfStrings + " strings, " + copies + " copies and " + groups + " groups");
+        }
+
+        Strings dictionary = new Strings(file, catalogue, HEADER, numberOfStrings);
+        Strings uniqueIds = new Strings(file, catalogue, dictionary.end(), copies);
+        String[] decoded = new String[numberOfStrings];
+        ItemType[] types = ItemType.values();
+
+        int position = uniqueIds.end();
+        int copy = 0;
+        for (int group = 0; group < groups; group++) {
+            need(file, catalogue, position, 9, "group " + group);
+            String title = decoded(file, position, catalogue.getInt(position), dictionary, decoded);
+            int type = catalogue.get(position + 4);
+            int size = catalogue.getInt(position + 5);
+            if (type < 0 || type >= types.length) {
+                throw corrupt(file, position + 4, "there is no item type " + type);
+            }
+            if (size < 0 || size > copies - copy) {
+                throw corrupt(file, position + 5, "group " + group + " has " + size + " copies, only " + (copies - copy) + " of the " + copies + " are left");
+            }
+            position += 9;
+            need(file, catalogue, position, size * 4L, "the book ids of group " + group);
+
+            Item[] items = new Item[size];
+            for (int i = 0; i < size; i++, position += 4) {
+                String bookId = decoded(file, position, catalogue.getInt(position), dictionary, decoded);
+                items[i] = new Item(uniqueIds.get(copy++), bookId, types[type], title);
+            }
+            builder.addCopies(items);
+        }
+        if (copy != copies) {
+            throw corrupt(file, position, "the header says there are " + copies + " copies but the groups only have " + copy);
+        }
+        return builder;
+    }
+
+    private static IOException corrupt(Path file, long offset, String problem) {
+        return new IOException(file + " is corrupt at offset " + offset + ", " + problem);
+    }
+
+    /* the file has to go on for at least the given number of bytes from the offset */
+    private static void need(Path file, ByteBuffer catalogue, long offset, long bytes, String what) throws IOException {
+        if (offset + bytes > catalogue.capacity()) {
+            throw corrupt(file, offset, what + " needs " + bytes + " bytes but the file ends at " + catalogue.capacity());
+        }
+    }
+
+    /* the index was read from the given offset */
+    private static String decoded(Path file, int offset, int index, Strings dictionary, String[] decoded) throws IOException {
+        if (index < 0 || index >= decoded.length) {
+            throw corrupt(file, offset, "there is no string " + index + " in the dictionary of " + decoded.length);
+        }
+        String string = decoded[index];
+        if (string == null) {
+            string = decoded[index] = dictionary.get(index);
+        }
+        return string;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too big to map in one go");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /* in the order the builder would have put them, the same title with a different type is its own group */
+    private static Collection<List<Item>> groupByTitle(Iterable<Item> items) {
+        Map<Entry<String, ItemType>, List<Item>> groups = new LinkedHashMap<>();
+        for (Item item : items) {
+            groups.computeIfAbsent(new SimpleImmutableEntry<>(item.title, item.type), key -> new ArrayList<>()).add(item);
+        }
+        return groups.values();
+    }
+
+    /* strings one after another, with where each one starts written out in front of them */
+    private static class StringTable {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Integer> offsets = new ArrayList<>();
+
+        private int indexOf(String string, Map<String, Integer> dictionary) {
+            Integer index = dictionary.get(string);
+            if (index == null) {
+                index = add(string);
+                dictionary.put(string, index);
+            }
+            return index;
+        }
+
+        private int add(String string) {
+            offsets.add(bytes.size());
+            byte[] encoded = string.getBytes(UTF_8);
+            bytes.write(encoded, 0, encoded.length);
+            return offsets.size() - 1;
+        }
+
+        private int size() {
+            return offsets.size();
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /* reads a string table where it lies in the mapped file, only copying out the strings that are asked for */
+    private static class Strings {
+        private final Path file;
+        private final ByteBuffer catalogue;
+        private final ByteBuffer reader;
+        private final int offsets;
+        private final int bytes;
+        private final int count;
+        /* how many bytes of strings there are, where the last one ends */
+        private final int length;
+        private byte[] scratch = new byte[64];
+
+        /* checks the offsets and the strings after them fit in the file, each string's own offsets are checked as it's read */
+        private Strings(Path file, ByteBuffer catalogue, int start, int count) throws IOException {
+            need(file, catalogue, start, (count + 1) * 4L, "the offsets of " + count + " strings");
+            this.file = file;
+            this.catalogue = catalogue;
+            this.reader = catalogue.duplicate();
+            this.offsets = start;
+            this.bytes = start + (count + 1) * 4;
+            this.count = count;
+            this.length = catalogue.getInt(offsets + count * 4);
+            if (length < 0) {
+                throw corrupt(file, offsets + count * 4L, "the strings are " + length + " bytes long");
+            }
+            need(file, catalogue, bytes, length, "the strings");
+        }
+
+        private String get(int index) throws IOException {
+            int from = catalogue.getInt(offsets + index * 4);
+            int to = catalogue.getInt(offsets + (index + 1) * 4);
+            if (from < 0 || from > to || to > length) {
+                throw corrupt(file, offsets + index * 4L, "string " + index + " runs from " + from + " to " + to + " of " + length + " bytes");
+            }
+
+            int size = to - from;
+            if (size > scratch.length) {
+                scratch = new byte[Math.max(size, scratch.length * 2)];
+            }
+            reader.position(bytes + from);
+            reader.get(scratch, 0, size);
+            return new String(scratch, 0, size, UTF_8);
+        }
+
+        private int end() {
+            return bytes + length;
+        }
+    }
+}
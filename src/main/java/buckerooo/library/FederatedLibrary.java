@@ -0,0 +1,388 @@
+package buckerooo.library;
+
+import buckerooo.library.Library.ItemKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+
+import static buckerooo.library.ItemNotFoundException.itemNotFound;
+import static buckerooo.library.ItemOutOfStockException.itemOutOfStock;
+
+/*
+ * several branches, each a Library of its own, lending as one. every title keeps a note of which branches have
+ * it and how many copies each has on the shelf right now, so a borrow goes straight to the nearest branch that
+ * can lend rather than asking each in turn. anything about the whole catalogue asks every branch at once on
+ * the pool. calls that don't name a branch are made from the first one
+ *
+ * each branch keeps to its own LoanPolicy, so a borrow limit is how many copies someone may have out from that
+ * branch, not from the federation as a whole. a borrow passes over a branch the user is at the limit of and
+ * goes on to the next nearest, the same as it would if they had named that branch
+ */
+public class FederatedLibrary implements LendingLibrary {
+    private final String[] names;
+    private final Library[] branches;
+    /* for each branch, every branch by number nearest first, starting with itself */
+    private final int[][] nearestFirst;
+    private final ForkJoinPool pool;
+
+    /*
+     * for each title and type, how many copies each branch has on the shelf by branch number, null for a branch
+     * without the title. the counts are read live from the branches, the arrays only change when a branch gets
+     * a title it didn't have and are replaced whole holding titlesLock
+     */
+    private final ConcurrentMap<ItemKey, IntSupplier[]> availability = new ConcurrentHashMap<>();
+    private final Object titlesLock = new Object();
+
+    private FederatedLibrary(Builder builder) {
+        int count = builder.branches.size();
+        this.names = builder.branches.keySet().toArray(new String[count]);
+        this.branches = builder.branches.values().toArray(new Library[count]);
+        this.pool = builder.pool;
+
+        this.nearestFirst = new int[count][];
+        for (int from = 0; from < count; from++) {
+            int[] distances = builder.distancesFrom(names[from], names);
+            /* sorting is stable, so branches the same distance away, or with no distance given, stay in the order they were added */
+            nearestFirst[from] = IntStream.range(0, count)
+                    .boxed()
+                    .sorted(Comparator.comparingInt(branch -> distances[branch]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        for (int branch = 0; branch < count; branch++) {
+            noteTitles(branch);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Item> currentInventory() {
+        return Libraries.askEvery(pool, branches, Library::currentInventory);
+    }
+
+    @Override
+    public long inventoryCount() {
+        long count = 0;
+        for (Library branch : branches) {
+            count += branch.inventoryCount();
+        }
+        return count;
+    }
+
+    /* copies on the shelf at every branch with the title */
+    @Override
+    public int availableCopies(String title, ItemType type) throws ItemNotFoundException {
+        int available = 0;
+        for (IntSupplier branch : stockOf(title, type)) {
+            if (branch != null) {
+                available += branch.getAsInt();
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public Receipt borrowItem(String title, ItemType type, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        return borrowItem(0, title, type, user);
+    }
+
+    /* lends a copy from the nearest branch to this one that has one on the shelf and will lend to the user */
+    public Receipt borrowItem(String branch, String title, ItemType type, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        return borrowItem(branchNumber(branch), title, type, user);
+    }
+
+    @Override
+    public List<Receipt> borrowItems(List<BasketItem> basket, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        return borrowItems(0, basket, user);
+    }
+
+    /*
+     * each copy in the basket comes from the nearest branch that has one, so one basket can be filled from
+     * several branches. either every copy is lent or none are
+     */
+    public List<Receipt> borrowItems(String branch, List<BasketItem> basket, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        return borrowItems(branchNumber(branch), basket, user);
+    }
+
+    @Override
+    public CompletableFuture<Receipt> placeHold(String title, ItemType type, User user) throws ItemNotFoundException {
+        return placeHold(names[0], title, type, user);
+    }
+
+    /*
+     * a copy in at any branch is lent straight away, from the nearest one that will lend it like borrowItem. only
+     * when none will does the hold wait, at the nearest branch with the title
+     */
+    public CompletableFuture<Receipt> placeHold(String branch, String title, ItemType type, User user) throws ItemNotFoundException {
+        int from = branchNumber(branch);
+        try {
+            return CompletableFuture.completedFuture(borrowItem(from, title, type, user));
+        } catch (ItemOutOfStockException | BorrowLimitException e) {
+            /* nothing in that they can have, so wait for the next copy back */
+        }
+
+        IntSupplier[] stock = stockOf(title, type);
+        for (int nearest : nearestFirst[from]) {
+            if (stock[nearest] != null) {
+                return branches[nearest].placeHold(title, type, user);
+            }
+        }
+        throw itemNotFound(title, type);
+    }
+
+    /* goes back to the branch it came from, wherever it's handed in */
+    @Override
+    public void returnItem(Item item) throws ItemNotFoundException {
+        branches[branchHaving(item)].returnItem(item);
+    }
+
+    /* the branch a copy belongs to */
+    public String branchOf(Item item) throws ItemNotFoundException {
+        return names[branchHaving(item)];
+    }
+
+    @Override
+    public int addItems(Iterable<Item> items) {
+        return addItems(names[0], items);
+    }
+
+    public int addItems(String branch, Iterable<Item> items) {
+        int number = branchNumber(branch);
+        int added = branches[number].addItems(items);
+        if (added > 0) {
+            noteTitles(number);
+        }
+        return added;
+    }
+
+    @Override
+    public void withdrawItem(Item item) throws ItemNotFoundException {
+        branches[branchHaving(item)].withdrawItem(item);
+    }
+
+    /* copies no branch has, or that have already been withdrawn, are skipped rather than failing the rest */
+    @Override
+    public int withdrawItems(Iterable<Item> items) {
+        int withdrawn = 0;
+        for (Item item : items) {
+            try {
+                withdrawItem(item);
+                withdrawn++;
+            } catch (ItemNotFoundException e) {
+                /* not ours, or already gone */
+            }
+        }
+        return withdrawn;
+    }
+
+    /* soonest due first across every branch */
+    @Override
+    public List<Item> overdueItems() {
+        return Libraries.overdueItems(pool, branches);
+    }
+
+    @Override
+    public List<Item> borrowedItems(User user) {
+        return Libraries.askEvery(pool, branches, branch -> branch.borrowedItems(user));
+    }
+
+    /* a branch the user is at the limit of is passed over like one without a copy in, the limit only matters if every branch with one refuses */
+    private Receipt borrowItem(int from, String title, ItemType type, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        IntSupplier[] stock = stockOf(title, type);
+        BorrowLimitException refused = null;
+        for (int nearest : nearestFirst[from]) {
+            if (stock[nearest] != null && stock[nearest].getAsInt() > 0) {
+                try {
+                    return branches[nearest].borrowItem(title, type, user);
+                } catch (ItemOutOfStockException e) {
+                    /* the last copy went between looking and borrowing, try the next nearest */
+                } catch (BorrowLimitException e) {
+                    if (refused == null) {
+                        refused = e;
+                    }
+                }
+            }
+        }
+        if (refused != null) {
+            throw refused;
+        }
+        throw itemOutOfStock(title, type);
+    }
+
+    private List<Receipt> borrowItems(int from, List<BasketItem> basket, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        /*
+         * take every copy off its branch's shelf and count it towards the user's limit there before lending any
+         * of them, like Library.borrowItems does, so a basket that can't be filled was never lent at all
+         */
+        int[] branchOf = new int[basket.size()];
+        int[] slots = new int[basket.size()];
+        int taken = 0;
+        try {
+            for (; taken < basket.size(); taken++) {
+                BasketItem basketItem = basket.get(taken);
+                branchOf[taken] = takeNearest(from, basketItem.title, basketItem.type, user, slots, taken);
+            }
+        } catch (Exception e) {
+            for (int i = 0; i < taken; i++) {
+                branches[branchOf[i]].putBackTaken(slots[i]);
+                branches[branchOf[i]].releaseCopies(user, 1);
+            }
+            throw e;
+        }
+
+        return Libraries.lendAll(slots.length, new Libraries.TakenCopies() {
+            @Override
+            public Receipt lend(int copy) {
+                return branches[branchOf[copy]].lendTaken(slots[copy], user);
+            }
+
+            @Override
+            public void giveBack(int copy) {
+                branches[branchOf[copy]].giveBack(slots[copy]);
+            }
+
+            @Override
+            public void putBack(int copy) {
+                branches[branchOf[copy]].releaseCopies(user, 1);
+                branches[branchOf[copy]].putBackTaken(slots[copy]);
+            }
+        });
+    }
+
+    /*
+     * takes a copy from the nearest branch with one in that will still lend to the user, counting it towards
+     * their limit there. puts its slot in slots[index] and returns the branch
+     */
+    private int takeNearest(int from, String title, ItemType type, User user, int[] slots, int index) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        IntSupplier[] stock = stockOf(title, type);
+        BorrowLimitException refused = null;
+        for (int nearest : nearestFirst[from]) {
+            if (stock[nearest] != null && stock[nearest].getAsInt() > 0) {
+                try {
+                    branches[nearest].reserveCopies(user, 1);
+                } catch (BorrowLimitException e) {
+                    if (refused == null) {
+                        refused = e;
+                    }
+                    continue;
+                }
+
+                int slot = branches[nearest].takeCopy(title, type);
+                if (slot >= 0) {
+                    slots[index] = slot;
+                    return nearest;
+                }
+                branches[nearest].releaseCopies(user, 1);
+            }
+        }
+        if (refused != null) {
+            throw refused;
+        }
+        throw itemOutOfStock(title, type);
+    }
+
+    private IntSupplier[] stockOf(String title, ItemType type) throws ItemNotFoundException {
+        IntSupplier[] stock = availability.get(new ItemKey(title, type));
+        if (stock == null) {
+            throw itemNotFound(title, type);
+        }
+        return stock;
+    }
+
+    /* only asks the branches with the title whether the copy is theirs */
+    private int branchHaving(Item item) throws ItemNotFoundException {
+        IntSupplier[] stock = availability.get(new ItemKey(item.title, item.type));
+        if (stock != null) {
+            for (int branch = 0; branch < branches.length; branch++) {
+                if (stock[branch] != null && branches[branch].has(item)) {
+                    return branch;
+                }
+            }
+        }
+        throw itemNotFound(item);
+    }
+
+    /* picks up any titles the branch has that we haven't noted for it yet */
+    private void noteTitles(int branch) {
+        Library library = branches[branch];
+        synchronized (titlesLock) {
+            library.forEachTitle((title, type) -> {
+                ItemKey key = new ItemKey(title, type);
+                IntSupplier[] stock = availability.get(key);
+                if (stock == null || stock[branch] == null) {
+                    IntSupplier[] withBranch = stock == null ? new IntSupplier[branches.length] : stock.clone();
+                    withBranch[branch] = library.availability(title, type);
+                    availability.put(key, withBranch);
+                }
+            });
+        }
+    }
+
+    private int branchNumber(String branch) {
+        for (int number = 0; number < names.length; number++) {
+            if (names[number].equals(branch)) {
+                return number;
+            }
+        }
+        throw new IllegalArgumentException("There is no branch called " + branch);
+    }
+
+    public static class Builder {
+        private final Map<String, Library> branches = new LinkedHashMap<>();
+        private final Map<String, Map<String, Integer>> distances = new HashMap<>();
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        private Builder() {
+        }
+
+        public Builder branch(String name, Library library) {
+            if (branches.putIfAbsent(name, library) != null) {
+                throw new IllegalArgumentException("There is already a branch called " + name);
+            }
+            return this;
+        }
+
+        /* how far apart two branches are, either way round. branches with no distance given are furthest of all */
+        public Builder distance(String from, String to, int distance) {
+            distances.computeIfAbsent(from, branch -> new HashMap<>()).put(to, distance);
+            distances.computeIfAbsent(to, branch -> new HashMap<>()).put(from, distance);
+            return this;
+        }
+
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public FederatedLibrary build() {
+            if (branches.isEmpty()) {
+                throw new IllegalStateException("A federated library needs at least one branch");
+            }
+            return new FederatedLibrary(this);
+        }
+
+        private int[] distancesFrom(String from, String[] names) {
+            Map<String, Integer> known = distances.getOrDefault(from, Collections.emptyMap());
+            int[] distancesFrom = new int[names.length];
+            for (int branch = 0; branch < names.length; branch++) {
+                distancesFrom[branch] = names[branch].equals(from) ? Integer.MIN_VALUE : known.getOrDefault(names[branch], Integer.MAX_VALUE);
+            }
+            return distancesFrom;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package buckerooo.library;
 
+import com.google.common.base.Objects;
+
 import static buckerooo.library.ItemType.Book;
 import static buckerooo.library.ItemType.DVD;
 import static buckerooo.library.ItemType.VHS;
@@ -30,4 +32,25 @@ public class Item {
         return new Item(uniqueId, bookId, VHS, title);
     }
 
+    /* the library hands out a new Item each time it's asked, so two copies are the same if everything about them is */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Item item = (Item) o;
+        return uniqueId.equals(item.uniqueId) &&
+                type == item.type &&
+                title.equals(item.title) &&
+                Objects.equal(bookId, item.bookId);
+    }
+
+    @Override
+    public int hashCode() {
+        return uniqueId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return title + " (" + type + ") " + uniqueId;
+    }
 }
@@ -0,0 +1,75 @@
+package buckerooo.library;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * counts how many values fell into each of a fixed set of buckets, like an hdr histogram. values under 64 get a
+ * bucket each, above that every power of two is split into 32, so a bucket is never more than about 3% wide.
+ * recording is one atomic add and never allocates
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR = SUB_BUCKETS * 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketOf(Long.MAX_VALUE) + 1);
+
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(Math.max(0, value)));
+    }
+
+    public long count() {
+        long count = 0;
+        for (int bucket = 0; bucket < counts.length(); bucket++) {
+            count += counts.get(bucket);
+        }
+        return count;
+    }
+
+    /* the largest value that could be in the bucket the percentile falls in, 0 if nothing was recorded */
+    public long valueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int bucket = 0; bucket < snapshot.length; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            total += snapshot[bucket];
+        }
+
+        long wanted = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < snapshot.length; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= wanted) {
+                return highestIn(bucket);
+            }
+        }
+        return 0;
+    }
+
+    public long max() {
+        for (int bucket = counts.length() - 1; bucket >= 0; bucket--) {
+            if (counts.get(bucket) != 0) {
+                return highestIn(bucket);
+            }
+        }
+        return 0;
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestIn(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS + 1;
+        /* the very top bucket wraps round to Long.MAX_VALUE, which is where it ends anyway */
+        return (top << shift) - 1;
+    }
+}
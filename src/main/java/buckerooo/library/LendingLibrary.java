@@ -0,0 +1,34 @@
+package buckerooo.library;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/* what a library lends out, so a single Library and anything built out of several of them can be used the same way */
+public interface LendingLibrary {
+
+    List<Item> currentInventory();
+
+    long inventoryCount();
+
+    int availableCopies(String title, ItemType type) throws ItemNotFoundException;
+
+    Receipt borrowItem(String title, ItemType type, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException;
+
+    List<Receipt> borrowItems(List<BasketItem> basket, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException;
+
+    /* instead of asking again until a copy comes back, wait in line for the next one */
+    CompletableFuture<Receipt> placeHold(String title, ItemType type, User user) throws ItemNotFoundException;
+
+    void returnItem(Item item) throws ItemNotFoundException;
+
+    /* changes the catalogue while it's open, how many copies were added or withdrawn */
+    int addItems(Iterable<Item> items);
+
+    void withdrawItem(Item item) throws ItemNotFoundException;
+
+    int withdrawItems(Iterable<Item> items);
+
+    List<Item> overdueItems();
+
+    List<Item> borrowedItems(User user);
+}
@@ -0,0 +1,107 @@
+package buckerooo.library;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+
+/* for the lending libraries made of several Library instances, asks all of them the same thing at once */
+final class Libraries {
+
+    private Libraries() {
+    }
+
+    /* the answers are joined up in the order the libraries are given */
+    static <T> List<T> askEvery(ForkJoinPool pool, Library[] libraries, Function<Library, List<T>> query) {
+        /* a parallel stream started from inside the pool runs on that pool rather than the common one */
+        return pool.submit(() -> Arrays.stream(libraries)
+                .parallel()
+                .map(query)
+                .flatMap(List::stream)
+                .collect(toList()))
+                .join();
+    }
+
+    /*
+     * lends every copy of a basket that has already been taken off the shelf and counted towards the user's
+     * limit, either all of them or none. if one can't be lent, every rollback step is still tried even when an
+     * earlier one fails, and their failures are added to the one that stopped the basket
+     */
+    static List<Receipt> lendAll(int copies, TakenCopies taken) {
+        List<Receipt> receipts = new ArrayList<>(copies);
+        for (int i = 0; i < copies; i++) {
+            try {
+                receipts.add(taken.lend(i));
+            } catch (RuntimeException e) {
+                /* the copy that failed has already gone back, the ones lent before it are handed back and the rest were never out */
+                for (int j = 0; j < i; j++) {
+                    try {
+                        taken.giveBack(j);
+                    } catch (RuntimeException failed) {
+                        e.addSuppressed(failed);
+                    }
+                }
+                for (int j = i + 1; j < copies; j++) {
+                    try {
+                        taken.putBack(j);
+                    } catch (RuntimeException failed) {
+                        e.addSuppressed(failed);
+                    }
+                }
+                throw e;
+            }
+        }
+        return receipts;
+    }
+
+    /* the copies of a basket by their place in it, each taken off its shelf and counted towards the user's limit */
+    interface TakenCopies {
+
+        /* if it can't be lent, the copy goes back and stops counting towards the limit before this throws */
+        Receipt lend(int copy);
+
+        /* ends a loan lend made */
+        void giveBack(int copy);
+
+        /* for a copy that was never lent, stops it counting towards the limit and puts it back */
+        void putBack(int copy);
+    }
+
+    /* every library's overdue items, merged so the soonest due still come first like they do from one Library */
+    static List<Item> overdueItems(ForkJoinPool pool, Library[] libraries) {
+        List<List<OverdueLoan>> overdue = pool.submit(() -> Arrays.stream(libraries)
+                .parallel()
+                .map(Library::overdueLoans)
+                .collect(toList()))
+                .join();
+
+        /* each list is in order already, so only the next loan from each needs comparing */
+        PriorityQueue<PeekingIterator<OverdueLoan>> next = new PriorityQueue<>(
+                Math.max(1, libraries.length), Comparator.comparing(PeekingIterator::peek));
+        int size = 0;
+        for (List<OverdueLoan> loans : overdue) {
+            size += loans.size();
+            if (!loans.isEmpty()) {
+                next.add(Iterators.peekingIterator(loans.iterator()));
+            }
+        }
+
+        List<Item> merged = new ArrayList<>(size);
+        while (!next.isEmpty()) {
+            PeekingIterator<OverdueLoan> soonest = next.poll();
+            merged.add(soonest.next().item);
+            if (soonest.hasNext()) {
+                next.add(soonest);
+            }
+        }
+        return merged;
+    }
+}
@@ -1,143 +1,1526 @@
 package buckerooo.library;
 
-import com.google.common.base.Objects;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-
 import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.util.Collection;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
 
+import static buckerooo.library.BorrowLimitException.borrowLimitReached;
 import static buckerooo.library.ItemNotFoundException.itemNotFound;
 import static buckerooo.library.ItemOutOfStockException.itemOutOfStock;
 import static java.util.stream.Collectors.toList;
 
-public class Library {
+public class Library implements LendingLibrary {
     private final Clock clock;
-    private final Multimap<ItemKey, StockItem> libraryItems;
+    private final LoanListener listener;
+    /* false when nobody is listening, so lending and returning don't make an Item just to hand it to nobody */
+    private final boolean listening;
+    private final LibraryMetrics metrics;
+    /* false when nobody is listening, so the hot paths don't even read the clock */
+    private final boolean measured;
+    private static final int CHUNK_BITS = Shelf.CHUNK_BITS;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    /* a withdrawn copy's bucket in slotsByUniqueId, so lookups keep probing past it */
+    private static final int REMOVED = -1;
+
+    /*
+     * every copy by slot, in chunks that never move so copies can be added while others are borrowed. the copies
+     * of a title are added next to each other, so a title is a range of slots or a few ranges if it grew later
+     */
+    private volatile StockItem[][] stockItems = new StockItem[0][];
+
+    /* adding and withdrawing copies take turns with each other, borrowing and returning never wait for them */
+    private final Object catalogueLock = new Object();
+    /* how many slots have been used, guarded by catalogueLock */
+    private int slots;
+
+    /* which copies are in, it is also the inventory so reading it only costs as much as what is on the shelf */
+    private final Shelf shelf;
+
+    /* copies on the shelf of each ItemType, indexed by ordinal */
+    private final LongAdder[] availableByType = new LongAdder[ItemType.values().length];
+
+    /*
+     * looked up by title then indexed by ItemType.ordinal(), so finding a title never has to allocate a key.
+     * the arrays are never changed once they're in the map, a title gaining a type gets a new one
+     */
+    private final Map<String, Title[]> titles = new ConcurrentHashMap<>();
+    /* how many titles we have ever had, each gets the next number as its id. guarded by catalogueLock */
+    private int numberOfTitles;
+    private final TitleIndex titleIndex;
+
+    /*
+     * open addressing from a copy's unique id to its slot + 1, 0 marks an empty bucket. replaced with a bigger
+     * one when it fills up, both guarded by catalogueLock, readers just take whichever table is current
+     */
+    private volatile AtomicIntegerArray slotsByUniqueId;
+    private int bucketsUsed;
+    private int uniqueIds;
+
+    /*
+     * the copies each user currently holds, kept in catalogue order so we never have to scan every item. this is
+     * also where a user gets their one User instance and int id, so a borrower who turns up with a new User each
+     * time doesn't leave a copy of it on every loan
+     */
+    private final ConcurrentMap<User, UserLoans> loansByUser = new ConcurrentHashMap<>();
+    private final Object usersLock = new Object();
+    /* guarded by usersLock, published before the user goes into loansByUser */
+    private volatile User[] usersById = new User[16];
+    private int numberOfUsers;
+
+    /* every copy that is out, soonest due first, so overdue queries only touch the overdue prefix */
+    private final ConcurrentSkipListSet<Loan> loansByDueDay = new ConcurrentSkipListSet<>();
+
+    private final LoanPolicy loanPolicy;
+    /* null unless the library's borrow limits are shared with other libraries, otherwise each user keeps their own count */
+    private final LoanCounts loanCounts;
+    /* null unless the builder was given one, then it hears about every loan made and ended */
+    private final LoanHistory history;
+    /* the policy's loan period for each ItemType by ordinal, asked once rather than on every borrow */
+    private final int[] loanDays;
+    /* the last day we worked out from the clock, most borrows fall on it */
+    private volatile Day today;
+
+    /* tells apart two loans of the same copy made at the same instant, while the older one is still leaving the indexes */
+    private final AtomicLong loanSequence = new AtomicLong();
+
+    /*
+     * loans are stamped with the version they were made and ended in. only taking a snapshot moves it on, so
+     * borrowing and returning just read it. while a snapshot is being taken, copies keep the loans they had
+     * since it started so it can still see them as they were
+     */
+    private final AtomicLong version = new AtomicLong(1);
+    private final AtomicInteger snapshotsUnderWay = new AtomicInteger();
 
     public Library(Clock clock, List<Item> libraryItems) {
-        this.clock = clock;
+        this(builder(clock).addAll(libraryItems));
+    }
 
-        /* i don't want to create the list, can i keep it as a stream */
-        List<StockItem> stockItems = libraryItems.stream().map(StockItem::new).collect(toList());
+    private Library(Builder builder) {
+        this.clock = builder.clock;
+        this.listener = LoanListener.all(builder.listeners);
+        this.listening = listener != LoanListener.NONE;
+        this.metrics = builder.metrics;
+        this.measured = metrics != LibraryMetrics.NONE;
+        this.loanPolicy = builder.loanPolicy;
+        this.loanCounts = builder.loanCounts;
+        this.history = builder.history;
+        this.loanDays = new int[ItemType.values().length];
+        for (ItemType type : ItemType.values()) {
+            loanDays[type.ordinal()] = loanPolicy.loanDays(type);
+        }
+        this.today = Day.of(clock.millis(), clock.getZone());
+        this.shelf = new Shelf(builder.size, metrics);
+        this.slotsByUniqueId = new AtomicIntegerArray(bucketsFor(builder.size));
+        for (int type = 0; type < availableByType.length; type++) {
+            availableByType[type] = new LongAdder();
+        }
 
-        this.libraryItems = Multimaps.index(stockItems, stockItem -> {
-            return new ItemKey(stockItem.item.title, stockItem.item.type);
-        });
+        synchronized (catalogueLock) {
+            addCopies(builder.itemsByTitle.values(), true);
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            shelf.putBack(slot);
+        }
+        this.titleIndex = new TitleIndex(titles.keySet());
+
+        if (history != null) {
+            history.attach(this);
+        }
+
+        /* bring back the loans we had before we were restarted, before anyone can borrow or listen */
+        if (builder.journal != null) {
+            builder.journal.recover(this);
+        }
     }
 
+    public static Builder builder(Clock clock) {
+        return new Builder(clock);
+    }
+
+    @Override
     public List<Item> currentInventory() {
-        return libraryItems.values()
-                .stream()
-                .filter(StockItem::inStock)
-                .map(stockItem -> stockItem.item)
+        return streamInventory().collect(toList());
+    }
+
+    /* a page of the inventory in catalogue order, offset counts items on the shelf not slots */
+    public List<Item> currentInventory(int offset, int limit) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("A page can't start before the first item, at " + offset);
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("A page needs room for at least one item, not " + limit);
+        }
+        return shelf.slotsOnTheShelf(shelf.nthOnTheShelf(offset))
+                .limit(limit)
+                .mapToObj(slot -> stockItem(slot).item())
                 .collect(toList());
     }
 
-    public Receipt borrowItem(String title, ItemType type, User user) throws ItemNotFoundException, ItemOutOfStockException {
-        if (! libraryItems.containsKey(new ItemKey(title, type))) {
-           throw itemNotFound(title, type);
+    public Stream<Item> streamInventory() {
+        return shelf.slotsOnTheShelf(0).mapToObj(slot -> stockItem(slot).item());
+    }
+
+    @Override
+    public long inventoryCount() {
+        long count = 0;
+        for (LongAdder available : availableByType) {
+            count += available.sum();
         }
+        return count;
+    }
 
-        /* look to see if any items are in stock */
-        Collection<StockItem> items = libraryItems.get(new ItemKey(title, type));
+    public long inventoryCount(ItemType type) {
+        return availableByType[type.ordinal()].sum();
+    }
 
-        while(true) {
-            StockItem itemToBeBorrowed = pickItem(title, type, items);
-            /* we have an item so lets try and borrow it */
-            try {
-                itemToBeBorrowed.borrowItem(user);
-                return new Receipt(LocalDate.now(clock), itemToBeBorrowed.item);
-            } catch(ItemOutOfStockException e) {
-                /* someone must have sneaked in and borrowed it, lets try and borrow another item */
+    @Override
+    public Receipt borrowItem(String title, ItemType type, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        long start = measured ? System.nanoTime() : 0;
+        Title copies = titleOf(title, type);
+        if (copies == null) {
+            if (measured) {
+                metrics.notFound(type, System.nanoTime() - start);
+            }
+            throw itemNotFound(title, type);
+        }
+
+        reserve(user, 1);
+        Loan loan = borrowAny(copies, user);
+        if (loan == null) {
+            release(user, 1);
+            if (measured) {
+                metrics.outOfStock(type, System.nanoTime() - start);
             }
+            throw itemOutOfStock(title, type);
         }
+
+        Receipt receipt = loan.receipt();
+        if (measured) {
+            metrics.borrowed(type, System.nanoTime() - start);
+        }
+        return receipt;
     }
 
-    private StockItem pickItem(String title, ItemType type, Collection<StockItem> items) throws ItemOutOfStockException {
-        return items.stream()
-                    .filter(StockItem::inStock)
-                    .findAny()
-                    .orElseThrow(() -> itemOutOfStock(title, type));
+    /* either the user gets every item in the basket or nothing at all, the receipts come back in basket order */
+    @Override
+    public List<Receipt> borrowItems(List<BasketItem> basket, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        long start = measured ? System.nanoTime() : 0;
+        Title[] wanted = new Title[basket.size()];
+        for (int i = 0; i < wanted.length; i++) {
+            wanted[i] = titleOf(basket.get(i).title, basket.get(i).type);
+            if (wanted[i] == null) {
+                if (measured) {
+                    metrics.notFound(basket.get(i).type, System.nanoTime() - start);
+                }
+                throw itemNotFound(basket.get(i).title, basket.get(i).type);
+            }
+        }
+
+        /*
+         * take every copy off the shelf before lending any of them. nobody waits on anybody so overlapping
+         * baskets can't deadlock, and a basket that can't be filled gives up rather than retrying so they can't livelock
+         */
+        reserve(user, wanted.length);
+        int[] reserved = new int[wanted.length];
+        for (int i = 0; i < wanted.length; i++) {
+            reserved[i] = takeAny(wanted[i]);
+            if (reserved[i] < 0) {
+                /* none of these were ever lent, so putting them back is all it takes */
+                for (int j = 0; j < i; j++) {
+                    putBack(stockItem(reserved[j]));
+                }
+                release(user, wanted.length);
+                if (measured) {
+                    metrics.basket(wanted.length, false, System.nanoTime() - start);
+                }
+                throw itemOutOfStock(basket.get(i).title, basket.get(i).type);
+            }
+        }
+
+        List<Receipt> receipts = Libraries.lendAll(reserved.length, new Libraries.TakenCopies() {
+            @Override
+            public Receipt lend(int copy) {
+                return Library.this.lend(stockItem(reserved[copy]), user).receipt();
+            }
+
+            @Override
+            public void giveBack(int copy) {
+                returnCopy(stockItem(reserved[copy]));
+            }
+
+            @Override
+            public void putBack(int copy) {
+                release(user, 1);
+                Library.this.putBack(stockItem(reserved[copy]));
+            }
+        });
+        if (measured) {
+            metrics.basket(wanted.length, true, System.nanoTime() - start);
+        }
+        return receipts;
+    }
+
+    /*
+     * joins the queue for the title, the future completes with the receipt once a copy is lent to the user. that
+     * happens on the thread that returned the copy, so anything slow should be chained on with an executor.
+     * cancelling the future gives up the place in the queue
+     */
+    @Override
+    public CompletableFuture<Receipt> placeHold(String title, ItemType type, User user) throws ItemNotFoundException {
+        Title copies = titleOf(title, type);
+        if (copies == null) {
+            throw itemNotFound(title, type);
+        }
+
+        Hold hold = new Hold(user);
+        copies.holds().add(hold);
+
+        /* the last copy was retired while we were joining, and may have missed us when it turned the others away */
+        if (copies.copies == 0) {
+            giveUpHolds(copies, title, type);
+            return hold.receipt;
+        }
+
+        /* a copy that's on the shelf now would sit there while we wait, so send it round to whoever is first in the queue */
+        int slot = takeAny(copies);
+        if (slot >= 0) {
+            putBack(stockItem(slot));
+        }
+        return hold.receipt;
+    }
+
+    @Override
+    public int availableCopies(String title, ItemType type) throws ItemNotFoundException {
+        Title copies = titleOf(title, type);
+        if (copies == null) {
+            throw itemNotFound(title, type);
+        }
+        return copies.availableCount;
     }
 
+    @Override
     public void returnItem(Item item) throws ItemNotFoundException {
-        StockItem foundStockItem = libraryItems.get(new ItemKey(item.title, item.type)).stream()
-                .filter(stockItem -> stockItem.item.uniqueId.equals(item.uniqueId))
-                .findFirst()
-                .orElseThrow(() -> itemNotFound(item));
+        long start = measured ? System.nanoTime() : 0;
+        StockItem foundStockItem = stockItemFor(item);
+        if (foundStockItem == null) {
+            if (measured) {
+                metrics.notFound(item.type, System.nanoTime() - start);
+            }
+            throw itemNotFound(item);
+        }
+
+        returnCopy(foundStockItem);
+        if (measured) {
+            metrics.returned(item.type, System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * new copies go straight on the shelf, or to whoever is waiting for them. copies with an id we already have
+     * are left out, so adding the same batch twice changes nothing. only costs as much as the copies added
+     */
+    @Override
+    public int addItems(Iterable<Item> items) {
+        Builder batch = new Builder(clock).addAll(items);
+        int from;
+        int to;
+        synchronized (catalogueLock) {
+            from = slots;
+            addCopies(batch.itemsByTitle.values(), false);
+            to = slots;
+        }
+
+        for (int slot = from; slot < to; slot++) {
+            putBack(stockItem(slot));
+        }
+        return to - from;
+    }
 
-        foundStockItem.returnItem();
+    /* a copy that's in goes now, one that's out goes when it comes back so whoever has it can still return it */
+    @Override
+    public void withdrawItem(Item item) throws ItemNotFoundException {
+        StockItem copy = stockItemFor(item);
+        if (copy == null || !withdraw(copy)) {
+            throw itemNotFound(item);
+        }
     }
 
+    /* copies we don't have, or have already withdrawn, are skipped rather than failing the rest */
+    @Override
+    public int withdrawItems(Iterable<Item> items) {
+        int withdrawn = 0;
+        for (Item item : items) {
+            StockItem copy = stockItemFor(item);
+            if (copy != null && withdraw(copy)) {
+                withdrawn++;
+            }
+        }
+        return withdrawn;
+    }
+
+    @Override
     public List<Item> overdueItems() {
-        return libraryItems.values()
+        long start = measured ? System.nanoTime() : 0;
+        List<Item> overdue = streamOverdueItems().collect(toList());
+        if (measured) {
+            metrics.overdueScanned(overdue.size(), System.nanoTime() - start);
+        }
+        return overdue;
+    }
+
+    /* lets big jobs walk the overdue items without building one huge list, the longest overdue first */
+    public Stream<Item> streamOverdueItems() {
+        /* anything due before today is overdue */
+        return loansByDueDay.headSet(Loan.dueFrom(epochDay(clock.millis())))
                 .stream()
-                .filter(stockItem -> !stockItem.inStock())
-                .filter(stockItem -> stockItem.borrowedDate().isBefore(LocalDate.now(clock).minusDays(7)))
-                .map(stockItem -> stockItem.item)
+                .filter(Loan::isCurrent)
+                .map(loan -> loan.stockItem.item());
+    }
+
+    /* the same as streamOverdueItems, with when each was due and borrowed */
+    List<OverdueLoan> overdueLoans() {
+        return loansByDueDay.headSet(Loan.dueFrom(epochDay(clock.millis())))
+                .stream()
+                .filter(Loan::isCurrent)
+                .map(loan -> new OverdueLoan(loan.stockItem.item(), loan.dueDay, loan.borrowedAt))
                 .collect(toList());
     }
 
+    /*
+     * one notice for each user with something overdue, worked out a user at a time as the stream is read so only
+     * that user's loans are ever held. it walks everyone's loans rather than the overdue ones, which is what lets
+     * each user come up exactly once without remembering who we've already seen
+     */
+    public Stream<OverdueNotice> streamOverdueNotices() {
+        int today = epochDay(clock.millis());
+
+        return loansByUser.entrySet()
+                .stream()
+                .map(loans -> overdueNotice(loans.getKey(), loans.getValue().loans, today))
+                .filter(notice -> notice != null);
+    }
+
+    /* the notices at most batchSize at a time, the next batch isn't worked out until it's asked for */
+    public Iterator<List<OverdueNotice>> overdueNotices(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batches need room for at least one notice, not " + batchSize);
+        }
+
+        Iterator<OverdueNotice> notices = streamOverdueNotices().iterator();
+        return new Iterator<List<OverdueNotice>>() {
+            @Override
+            public boolean hasNext() {
+                return notices.hasNext();
+            }
+
+            @Override
+            public List<OverdueNotice> next() {
+                if (!notices.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<OverdueNotice> batch = new ArrayList<>(Math.min(batchSize, 64));
+                while (batch.size() < batchSize && notices.hasNext()) {
+                    batch.add(notices.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /* titles that start with the prefix, whatever the case, one match for each type we have them in */
+    public List<TitleMatch> titlesStartingWith(String prefix, int limit) {
+        return matches(titleIndex.startingWith(prefix, limit, this::stocked), limit);
+    }
+
+    /* titles with every word of the query in them, whatever the case and in any order */
+    public List<TitleMatch> searchTitles(String query, int limit) {
+        return matches(titleIndex.containingAll(query, limit, this::stocked), limit);
+    }
+
+    @Override
     public List<Item> borrowedItems(User user) {
-        return libraryItems.values()
+        UserLoans loans = loansByUser.get(user);
+        return (loans == null ? Collections.<Loan>emptySet() : loans.loans)
                 .stream()
-                .filter(stockItem -> !stockItem.inStock())
-                .filter(stockItem -> stockItem.borrowedBy().equals(user))
-                .map(stockItem -> stockItem.item)
+                .filter(Loan::isCurrent)
+                .map(loan -> loan.stockItem.item())
                 .collect(toList());
     }
 
-    /* test this!! */
-    public class StockItem {
-        public final Item item;
+    /*
+     * every copy as it was at one moment, so a report asking several things gets answers that agree with each
+     * other. taking it is one pass over the catalogue on the calling thread without holding anything up, then
+     * any number of threads can ask it what they like. only loans are versioned, a copy added or withdrawn
+     * while it is being taken may or may not be in it
+     */
+    public LibrarySnapshot snapshot() {
+        snapshotsUnderWay.incrementAndGet();
+        try {
+            /* loans made or ended in this version or before are in the snapshot, everything after is left out */
+            long at = version.getAndIncrement();
+            int today = epochDay(clock.millis());
+
+            StockItem[][] chunks = stockItems;
+            long[] onTheShelf = new long[(chunks.length << CHUNK_BITS) >>> 6];
+            int[] slots = new int[64];
+            int[] users = new int[64];
+            int[] dueDays = new int[64];
+            int out = 0;
+            scan:
+            for (StockItem[] chunk : chunks) {
+                for (StockItem copy : chunk) {
+                    if (copy == null) {
+                        /* slots are filled in order, so this is as far as the catalogue goes */
+                        break scan;
+                    }
+
+                    Loan loan = copy.loanAt(at);
+                    if (loan != null) {
+                        if (out == slots.length) {
+                            slots = Arrays.copyOf(slots, out * 2);
+                            users = Arrays.copyOf(users, out * 2);
+                            dueDays = Arrays.copyOf(dueDays, out * 2);
+                        }
+                        slots[out] = copy.slot;
+                        users[out] = loan.userId;
+                        dueDays[out] = loan.dueDay;
+                        out++;
+                    } else if (!copy.withdrawn) {
+                        onTheShelf[copy.slot >>> 6] |= 1L << copy.slot;
+                    }
+                }
+            }
+            return new LibrarySnapshot(this, today, onTheShelf, Arrays.copyOf(slots, out), Arrays.copyOf(users, out), Arrays.copyOf(dueDays, out));
+        } finally {
+            snapshotsUnderWay.decrementAndGet();
+        }
+    }
+
+    /* null if nothing they have is overdue */
+    private OverdueNotice overdueNotice(User user, Set<Loan> loans, int today) {
+        List<Loan> overdue = null;
+        for (Loan loan : loans) {
+            if (loan.dueDay < today && loan.isCurrent()) {
+                if (overdue == null) {
+                    overdue = new ArrayList<>();
+                }
+                overdue.add(loan);
+            }
+        }
+        if (overdue == null) {
+            return null;
+        }
+
+        overdue.sort(BY_BORROWED_TIME);
+        List<Item> items = new ArrayList<>(overdue.size());
+        int daysOverdue = 0;
+        for (Loan loan : overdue) {
+            items.add(loan.stockItem.item());
+            daysOverdue = Math.max(daysOverdue, today - loan.dueDay);
+        }
+        return new OverdueNotice(user, items, daysOverdue);
+    }
+
+    /* the day a time falls on, only goes back to the calendar when the time isn't on the day we worked out last */
+    private int epochDay(long millis) {
+        Day day = today;
+        if (millis < day.start || millis >= day.end) {
+            day = Day.of(millis, clock.getZone());
+            today = day;
+        }
+        return day.epochDay;
+    }
+
+    /* holds one of the copies the user is allowed out for a borrow that's under way, it's theirs until release */
+    private void reserve(User user, int copies) throws BorrowLimitException {
+        UserLoans loans = loansOf(user);
+        if (!tryReserve(loans, user, copies)) {
+            throw borrowLimitReached(user, loans.out.out(), copies, loanPolicy.borrowLimit(user));
+        }
+    }
+
+    private boolean tryReserve(UserLoans loans, User user, int copies) {
+        return loans.out.tryAdd(copies, loanPolicy.borrowLimit(user));
+    }
+
+    private void release(User user, int copies) {
+        loansOf(user).out.add(-copies);
+    }
+
+    private UserLoans loansOf(User user) {
+        UserLoans loans = loansByUser.get(user);
+        return loans != null ? loans : loansByUser.computeIfAbsent(user, this::register);
+    }
+
+    private UserLoans register(User user) {
+        synchronized (usersLock) {
+            User[] users = usersById;
+            if (numberOfUsers == users.length) {
+                users = Arrays.copyOf(users, users.length * 2);
+            }
+            users[numberOfUsers] = user;
+            usersById = users;
+            return new UserLoans(user, numberOfUsers++, loanCounts == null ? new LoanCounts.Count() : loanCounts.of(user));
+        }
+    }
+
+    /* -1 for someone who has never borrowed anything, without giving them an id */
+    int knownUserId(User user) {
+        UserLoans loans = loansByUser.get(user);
+        return loans == null ? -1 : loans.id;
+    }
+
+    /* the same small number for a user for as long as the library is open, given out in the order they turned up */
+    int userId(User user) {
+        return loansOf(user).id;
+    }
+
+    User user(int id) {
+        return usersById[id];
+    }
+
+    private List<TitleMatch> matches(List<String> names, int limit) {
+        ItemType[] types = ItemType.values();
+        List<TitleMatch> matches = new ArrayList<>(Math.min(limit, names.size()));
+        for (String name : names) {
+            Title[] byType = titles.get(name);
+            for (int type = 0; type < byType.length && matches.size() < limit; type++) {
+                if (byType[type] != null && byType[type].copies > 0) {
+                    matches.add(new TitleMatch(name, types[type], byType[type].availableCount, byType[type].copies));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /* false once every copy of every type of the title has been withdrawn, so searches don't count it */
+    private boolean stocked(String name) {
+        for (Title title : titles.get(name)) {
+            if (title != null && title.copies > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* null if we don't have it, or every copy of it has been withdrawn, so it's found the same way searches find it */
+    private Title titleOf(String title, ItemType type) {
+        Title[] byType = titles.get(title);
+        Title copies = byType == null ? null : byType[type.ordinal()];
+        return copies == null || copies.copies == 0 ? null : copies;
+    }
+
+    /* the user must already have reserved the copy */
+    private Loan borrowAny(Title title, User user) {
+        int slot = takeAny(title);
+        if (slot < 0) {
+            return null;
+        }
+        return lend(stockItem(slot), user);
+    }
+
+    /*
+     * a copy nobody has goes to whoever has waited longest for its title, and only onto the shelf if nobody is
+     * waiting. a withdrawn copy goes nowhere
+     */
+    private void putBack(StockItem copy) {
+        if (copy.withdrawn) {
+            retire(copy);
+            return;
+        }
+
+        Queue<Hold> holds = copy.title.holds;
+        while (true) {
+            if (holds != null) {
+                for (Hold hold = holds.poll(); hold != null; hold = holds.poll()) {
+                    if (handOver(copy, hold)) {
+                        return;
+                    }
+                }
+            }
+
+            shelf.putBack(copy.slot);
+
+            /* withdrawn while we weren't looking, whichever of us gets it back off the shelf retires it */
+            if (copy.withdrawn) {
+                if (shelf.take(copy.slot)) {
+                    retire(copy);
+                }
+                return;
+            }
+
+            /* someone may have joined the queue after we looked, and missed this copy because it wasn't on the shelf yet */
+            holds = copy.title.holds;
+            if (holds == null || holds.isEmpty() || !shelf.take(copy.slot)) {
+                return;
+            }
+        }
+    }
+
+    /* false if they have given up waiting, so the copy should go to the next in line */
+    private boolean handOver(StockItem copy, Hold hold) {
+        if (hold.receipt.isDone()) {
+            return false;
+        }
+        UserLoans loans = loansOf(hold.user);
+        if (!tryReserve(loans, hold.user, 1)) {
+            /* they borrowed up to their limit while they waited, so the copy goes to the next in line */
+            hold.receipt.completeExceptionally(borrowLimitReached(hold.user, loans.out.out(), 1, loanPolicy.borrowLimit(hold.user)));
+            return false;
+        }
+
+        Loan loan;
+        try {
+            loan = lend(copy, hold.user);
+        } catch (RuntimeException e) {
+            /* lend has already passed the copy on */
+            hold.receipt.completeExceptionally(e);
+            return true;
+        }
+
+        if (!hold.receipt.complete(loan.receipt())) {
+            /* they cancelled while we were lending it to them */
+            returnCopy(copy);
+        }
+        return true;
+    }
+
+    /*
+     * start somewhere different each time so borrowers spread across the copies instead of all fighting over the
+     * first one, and for a title that grew later over its ranges too
+     */
+    private int takeAny(Title title) {
+        int[] ranges = title.ranges;
+        int numberOfRanges = ranges.length >>> 1;
+        int firstRange = numberOfRanges <= 1 ? 0 : ThreadLocalRandom.current().nextInt(numberOfRanges);
+        for (int i = 0; i < numberOfRanges; i++) {
+            int range = (firstRange + i) % numberOfRanges;
+            int from = ranges[range * 2];
+            int to = ranges[range * 2 + 1];
+            int start = from + (to - from == 1 ? 0 : ThreadLocalRandom.current().nextInt(to - from));
+
+            int slot = shelf.takeAny(from, to, start);
+            if (slot >= 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private StockItem stockItem(int slot) {
+        return stockItems[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+    }
+
+    /*
+     * only called holding catalogueLock. the new copies are counted as available but left off the shelf, when
+     * building there are no ids to skip and no title index to tell yet
+     */
+    private void addCopies(Iterable<Builder.Copies> batch, boolean building) {
+        for (Builder.Copies copies : batch) {
+            /* only made once a copy is really added, a batch of ids we already have leaves no trace */
+            Title title = null;
+            int from = slots;
+            for (int i = 0; i < copies.size; i++) {
+                Item item = copies.items[i];
+                if (!building && stockItemWithId(item.uniqueId) != null) {
+                    continue;
+                }
+                if (title == null) {
+                    title = titleFor(copies.key, building);
+                }
+
+                int slot = slots++;
+                makeRoomFor(slots);
+                stockItems[slot >>> CHUNK_BITS][slot & CHUNK_MASK] = new StockItem(slot, item.uniqueId, title.workFor(copies.key.title, item), title);
+                indexUniqueId(slot);
+            }
+
+            if (title != null) {
+                title.addSlots(from, slots);
+                Title.AVAILABLE_COUNT.addAndGet(title, slots - from);
+                availableByType[copies.key.type.ordinal()].add(slots - from);
+            }
+        }
+    }
+
+    /* only called holding catalogueLock */
+    private Title titleFor(ItemKey key, boolean building) {
+        Title[] byType = titles.get(key.title);
+        if (byType != null && byType[key.type.ordinal()] != null) {
+            return byType[key.type.ordinal()];
+        }
+
+        Title title = new Title(numberOfTitles++);
+        Title[] withTitle = byType == null ? new Title[ItemType.values().length] : byType.clone();
+        withTitle[key.type.ordinal()] = title;
+        titles.put(key.title, withTitle);
+        if (byType == null && !building) {
+            titleIndex.add(key.title);
+        }
+        return title;
+    }
+
+    /* only called holding catalogueLock */
+    private void makeRoomFor(int slots) {
+        StockItem[][] current = stockItems;
+        int needed = (slots + CHUNK_MASK) >>> CHUNK_BITS;
+        if (needed > current.length) {
+            StockItem[][] grown = Arrays.copyOf(current, needed);
+            for (int chunk = current.length; chunk < needed; chunk++) {
+                grown[chunk] = new StockItem[1 << CHUNK_BITS];
+            }
+            stockItems = grown;
+        }
+        shelf.grow(slots);
+    }
+
+    /* true if this was the one that withdrew it */
+    private boolean withdraw(StockItem copy) {
+        synchronized (catalogueLock) {
+            if (copy.withdrawn) {
+                return false;
+            }
+            copy.withdrawn = true;
+        }
+
+        /* if it's in it can go now, otherwise whoever puts it back next retires it instead */
+        if (shelf.take(copy.slot)) {
+            retire(copy);
+        }
+        return true;
+    }
+
+    /* only called by whoever has the copy off the shelf and not lent, so it's counted as available until now */
+    private void retire(StockItem copy) {
+        synchronized (catalogueLock) {
+            Title.AVAILABLE_COUNT.decrementAndGet(copy.title);
+            availableByType[copy.work.type.ordinal()].decrement();
+            copy.title.copies--;
+            removeUniqueId(copy.slot);
+        }
+        if (copy.title.copies == 0) {
+            giveUpHolds(copy.title, copy.work.title, copy.work.type);
+        }
+    }
 
-        private LocalDateTime borrowedTime;
-        private User borrowedBy;
+    /* the title has gone, so nobody still waiting for it will ever get a copy */
+    private void giveUpHolds(Title title, String name, ItemType type) {
+        Queue<Hold> holds = title.holds;
+        if (holds != null) {
+            for (Hold hold = holds.poll(); hold != null; hold = holds.poll()) {
+                hold.receipt.completeExceptionally(itemNotFound(name, type));
+            }
+        }
+    }
 
-        public StockItem(Item item) {
-            this.item = item;
+    /* only called holding catalogueLock */
+    private void indexUniqueId(int slot) {
+        if ((bucketsUsed + 1) * 2 > slotsByUniqueId.length()) {
+            rehashUniqueIds();
         }
 
-        public synchronized void borrowItem(User user) throws ItemOutOfStockException {
+        AtomicIntegerArray buckets = slotsByUniqueId;
+        String uniqueId = stockItem(slot).uniqueId;
+        int mask = buckets.length() - 1;
+        for (int bucket = spread(uniqueId.hashCode()) & mask; ; bucket = (bucket + 1) & mask) {
+            int entry = buckets.get(bucket);
+            if (entry == 0) {
+                buckets.set(bucket, slot + 1);
+                bucketsUsed++;
+                uniqueIds++;
+                return;
+            }
+            if (entry > 0 && stockItem(entry - 1).uniqueId.equals(uniqueId)) {
+                /* the first copy with an id wins, like it did when we searched the title for it */
+                return;
+            }
+        }
+    }
+
+    /* only called holding catalogueLock, the bucket stays used so lookups still probe past it */
+    private void removeUniqueId(int slot) {
+        AtomicIntegerArray buckets = slotsByUniqueId;
+        int mask = buckets.length() - 1;
+        for (int bucket = spread(stockItem(slot).uniqueId.hashCode()) & mask; buckets.get(bucket) != 0; bucket = (bucket + 1) & mask) {
+            if (buckets.get(bucket) == slot + 1) {
+                buckets.set(bucket, REMOVED);
+                uniqueIds--;
+                return;
+            }
+        }
+    }
+
+    /* a new table sized for the ids we have now, leaving behind the buckets of withdrawn copies */
+    private void rehashUniqueIds() {
+        AtomicIntegerArray old = slotsByUniqueId;
+        AtomicIntegerArray buckets = new AtomicIntegerArray(bucketsFor(uniqueIds + 1));
+        int mask = buckets.length() - 1;
+        for (int i = 0; i < old.length(); i++) {
+            int entry = old.get(i);
+            if (entry > 0) {
+                int bucket = spread(stockItem(entry - 1).uniqueId.hashCode()) & mask;
+                while (buckets.get(bucket) != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                buckets.set(bucket, entry);
+            }
+        }
+        slotsByUniqueId = buckets;
+        bucketsUsed = uniqueIds;
+    }
+
+    /* at most half full */
+    private static int bucketsFor(int uniqueIds) {
+        return Integer.highestOneBit(Math.max(1, uniqueIds) * 2 - 1) * 2;
+    }
+
+    /* every title and type we have copies of, for whoever keeps track of what several libraries hold */
+    void forEachTitle(BiConsumer<String, ItemType> action) {
+        ItemType[] types = ItemType.values();
+        titles.forEach((name, byType) -> {
+            for (int type = 0; type < byType.length; type++) {
+                if (byType[type] != null) {
+                    action.accept(name, types[type]);
+                }
+            }
+        });
+    }
+
+    /* reads how many copies of the title are on the shelf each time it's asked, null if we don't have the title */
+    IntSupplier availability(String title, ItemType type) {
+        Title copies = titleOf(title, type);
+        return copies == null ? null : () -> copies.availableCount;
+    }
+
+    /* the id the title's borrows are counted under, -1 if we don't have it */
+    int titleId(String title, ItemType type) {
+        Title copies = titleOf(title, type);
+        return copies == null ? -1 : copies.id;
+    }
+
+    /* slots are never reused, so this is still the copy that was lent from the slot even once it's withdrawn */
+    Item itemAt(int slot) {
+        return stockItem(slot).item();
+    }
+
+    int today() {
+        return epochDay(clock.millis());
+    }
+
+    /*
+     * takes a copy of the title off the shelf without lending it, for a basket filled from several libraries.
+     * -1 if none are in. whoever took it then lends it with lendTaken or puts it back with putBackTaken
+     */
+    int takeCopy(String title, ItemType type) {
+        Title copies = titleOf(title, type);
+        return copies == null ? -1 : takeAny(copies);
+    }
+
+    /* counts copies towards the user's limit before they are lent, each one is released as it's lent or put back */
+    void reserveCopies(User user, int copies) throws BorrowLimitException {
+        reserve(user, copies);
+    }
+
+    void releaseCopies(User user, int copies) {
+        release(user, copies);
+    }
+
+    /* the copy must have been taken and reserved for the user, if it can't be lent it goes back on the shelf */
+    Receipt lendTaken(int slot, User user) {
+        return lend(stockItem(slot), user).receipt();
+    }
 
-            if(this.borrowedTime != null) {
-                throw ItemOutOfStockException.itemOutOfStock(item.title, item.type);
+    void putBackTaken(int slot) {
+        putBack(stockItem(slot));
+    }
+
+    /* ends a loan lendTaken made, for when the rest of the basket couldn't be */
+    void giveBack(int slot) {
+        returnCopy(stockItem(slot));
+    }
+
+    /* whether the copy is one of ours, in or out */
+    boolean has(Item item) {
+        return stockItemFor(item) != null;
+    }
+
+    private StockItem stockItemWithId(String uniqueId) {
+        AtomicIntegerArray buckets = slotsByUniqueId;
+        int mask = buckets.length() - 1;
+        int entry;
+        for (int bucket = spread(uniqueId.hashCode()) & mask; (entry = buckets.get(bucket)) != 0; bucket = (bucket + 1) & mask) {
+            if (entry > 0 && stockItem(entry - 1).uniqueId.equals(uniqueId)) {
+                return stockItem(entry - 1);
             }
+        }
+        return null;
+    }
+
+    /* the copy the item describes, null if we don't have one with that id, title and type */
+    private StockItem stockItemFor(Item item) {
+        StockItem stockItem = stockItemWithId(item.uniqueId);
+        if (stockItem == null || stockItem.work.type != item.type || !stockItem.work.title.equals(item.title)) {
+            return null;
+        }
+        return stockItem;
+    }
+
+    private static int spread(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+
+    private void indexLoan(Loan loan) {
+        loansByDueDay.add(loan);
+        loansOf(loan.user).loans.add(loan);
+
+        /* the copy may have come back before we got the loan into the indexes, if so nobody else will clean it up */
+        if (!loan.isCurrent()) {
+            unindexLoan(loan);
+        }
+    }
+
+    /* a user's loans stay once they have borrowed something, dropping them when empty would race with their next borrow */
+    private void unindexLoan(Loan loan) {
+        loansByDueDay.remove(loan);
+        loansOf(loan.user).loans.remove(loan);
+    }
+
+    /* tells the listener about every loan that is out right now, soonest due first, as if they were being made */
+    void currentLoans(LoanListener listener) {
+        for (Loan loan : loansByDueDay) {
+            if (loan.isCurrent()) {
+                listener.borrowed(loan.stockItem.item(), loan.user, loan.borrowedAt);
+            }
+        }
+    }
+
+    /* puts a copy back into the state a journal says it was in, without telling the listeners about it again */
+    void restoreLoan(String uniqueId, User user, long borrowedAt) {
+        StockItem stockItem = stockItemWithId(uniqueId);
+        if (stockItem == null) {
+            /* it's not in the catalogue any more, so there's nothing to lend */
+            return;
+        }
+
+        restoreReturn(uniqueId);
+        if (shelf.take(stockItem.slot)) {
+            /* it was lent before, so it counts towards their limit even if the limit has come down since */
+            loansOf(user).out.add(1);
+            publish(stockItem, loanTo(stockItem, user, borrowedAt));
+        }
+    }
+
+    void restoreReturn(String uniqueId) {
+        StockItem stockItem = stockItemWithId(uniqueId);
+        if (stockItem != null && takeBack(stockItem) != null) {
+            shelf.putBack(stockItem.slot);
+        }
+    }
+
+    /*
+     * only called once the copy has been taken off the shelf, so nobody else can be lending it, and once the
+     * user has reserved it. if it can't be lent the reservation goes back with the copy
+     */
+    private Loan lend(StockItem copy, User user) {
+        Loan borrowed = loanTo(copy, user, clock.millis());
+        if (listening) {
+            try {
+                listener.borrowed(copy.item(), user, borrowed.borrowedAt);
+            } catch (RuntimeException e) {
+                /* it was never lent, so nobody should be left without it */
+                release(user, 1);
+                putBack(copy);
+                throw e;
+            }
+        }
+        publish(copy, borrowed);
+        if (history != null) {
+            history.borrowed(copy.title.id, copy.work, epochDay(borrowed.borrowedAt));
+        }
+        return borrowed;
+    }
+
+    /* the due date is worked out here once, everything after compares whole days */
+    private Loan loanTo(StockItem copy, User user, long borrowedAt) {
+        return loanTo(copy, user, borrowedAt, epochDay(borrowedAt) + loanDays[copy.work.type.ordinal()]);
+    }
+
+    private Loan loanTo(StockItem copy, User user, long borrowedAt, int dueDay) {
+        UserLoans borrower = loansOf(user);
+        /* the version first, if a snapshot moved it on we're sure to see that it's under way */
+        long lentIn = version.get();
+        Loan previous = snapshotsUnderWay.get() > 0 ? copy.ended : null;
+        return new Loan(copy, borrower.user, borrower.id, borrowedAt, dueDay, loanSequence.incrementAndGet(), lentIn, previous);
+    }
+
+    private void publish(StockItem copy, Loan borrowed) {
+        copy.loan = borrowed;
+
+        Title.AVAILABLE_COUNT.decrementAndGet(copy.title);
+        availableByType[copy.work.type.ordinal()].decrement();
+        indexLoan(borrowed);
+    }
+
+    private void returnCopy(StockItem copy) {
+        Loan returned = takeBack(copy);
+        if (returned == null) {
+            return;
+        }
+        if (history == null && !listening) {
+            putBack(copy);
+            return;
+        }
+
+        long returnedAt = clock.millis();
+        if (listening) {
+            try {
+                listener.returned(copy.item(), returned.user, returned.borrowedAt, returnedAt);
+            } catch (RuntimeException e) {
+                /* the journal may not have it, so it was never returned and whoever had it still has it */
+                relend(copy, returned);
+                throw e;
+            }
+        }
+        if (history != null) {
+            /* the borrow day comes from the due day, working it out from the time would throw away the cached today */
+            int borrowedDay = returned.dueDay - loanDays[copy.work.type.ordinal()];
+            history.returned(copy.slot, returned.userId, borrowedDay, epochDay(returnedAt), copy.work.type);
+        }
+        putBack(copy);
+    }
+
+    /* only called by whoever took the loan back, while the copy is still off the shelf, whether or not they're at their limit now */
+    private void relend(StockItem copy, Loan returned) {
+        loansOf(returned.user).out.add(1);
+        publish(copy, loanTo(copy, returned.user, returned.borrowedAt, returned.dueDay));
+    }
+
+    /* ends the loan if there is one, the copy stays off the shelf until whoever got it back puts it there */
+    private Loan takeBack(StockItem copy) {
+        Loan returned = copy.loan;
+        if (returned == null || !Loan.RETURNED_IN.compareAndSet(returned, 0, version.get())) {
+            return null;
+        }
+
+        /* a loan that ended before any snapshot under way started is one none of them need */
+        Loan last = snapshotsUnderWay.get() > 0 ? returned : null;
+        if (last != null || copy.ended != null) {
+            copy.ended = last;
+        }
+        copy.loan = null;
+
+        unindexLoan(returned);
+        release(returned.user, 1);
+        Title.AVAILABLE_COUNT.incrementAndGet(copy.title);
+        availableByType[copy.work.type.ordinal()].increment();
+        return returned;
+    }
 
-            this.borrowedBy = user;
-            this.borrowedTime = LocalDateTime.now(clock);
+    /* test this!! */
+    /*
+     * one per copy, so it only keeps what's different about the copy and shares the rest through its Work. it
+     * doesn't point back at its library, the library's methods are handed the copy instead
+     */
+    public static class StockItem {
+        public final int slot;
+        public final String uniqueId;
+        private final Work work;
+        private final Title title;
+
+        /*
+         * null while the copy is on the shelf. only whoever took it off the shelf may lend it, and only the
+         * returner who stamps the loan with the version it was returned in gets it back
+         */
+        private volatile Loan loan;
+        /* the last loan to end while a snapshot was under way, null once one ends when none is */
+        private volatile Loan ended;
+        /* set once, the copy leaves the catalogue the next time nobody has it */
+        private volatile boolean withdrawn;
+
+        private StockItem(int slot, String uniqueId, Work work, Title title) {
+            this.slot = slot;
+            this.uniqueId = uniqueId;
+            this.work = work;
+            this.title = title;
         }
 
-        public synchronized void returnItem() {
-            this.borrowedTime = null;
-            this.borrowedBy = null;
+        public Item item() {
+            return work.copy(uniqueId);
+        }
+
+        /* the loan the copy was out on as of the version, null if it was in */
+        private Loan loanAt(long version) {
+            Loan at = this.loan;
+            if (at == null) {
+                at = ended;
+            }
+            while (at != null && at.lentIn > version) {
+                at = at.previous;
+            }
+            if (at == null) {
+                return null;
+            }
+            long returnedIn = at.returnedIn;
+            return returnedIn == 0 || returnedIn > version ? at : null;
         }
 
         public boolean inStock() {
-            return this.borrowedTime == null;
+            return this.loan == null;
         }
 
-        public LocalDate borrowedDate() {
-            return borrowedTime.toLocalDate();
+        /* the day it was borrowed on in the zone given, it doesn't know its library's clock */
+        public LocalDate borrowedDate(ZoneId zone) {
+            return Instant.ofEpochMilli(loan.borrowedAt).atZone(zone).toLocalDate();
         }
 
         public User borrowedBy() {
-            return borrowedBy;
+            Loan current = this.loan;
+            return current == null ? null : current.user;
+        }
+    }
+
+    /* all the copies of one title, which ones are on the shelf is kept in the library's Shelf */
+    private static class Title {
+        private static final AtomicIntegerFieldUpdater<Title> AVAILABLE_COUNT =
+                AtomicIntegerFieldUpdater.newUpdater(Title.class, "availableCount");
+
+        private static final AtomicReferenceFieldUpdater<Title, Queue<Hold>> HOLDS =
+                AtomicReferenceFieldUpdater.newUpdater(Title.class, queueOfHolds(), "holds");
+
+        private static final int[] NO_SLOTS = new int[0];
+        private static final Work[] NO_WORKS = new Work[0];
+
+        private final int id;
+        /* from and to of each range of slots this title's copies sit in, replaced whole when copies are added */
+        private volatile int[] ranges = NO_SLOTS;
+        /* how many copies we have, in or out, only changed holding the catalogue lock */
+        private volatile int copies;
+        private volatile int availableCount;
+        /* only made once someone places a hold, most titles never have one */
+        private volatile Queue<Hold> holds;
+        /* what the copies share, only changed holding the catalogue lock. copies with another book id are rare enough to get an array */
+        private Work work;
+        private Work[] otherWorks = NO_WORKS;
+
+        private Title(int id) {
+            this.id = id;
+        }
+
+        /* only called holding the catalogue lock, every copy with the same book id gets the same work */
+        private Work workFor(String name, Item item) {
+            if (work == null) {
+                work = new Work(name, item.bookId, item.type);
+            }
+            if (work.bookId.equals(item.bookId)) {
+                return work;
+            }
+            for (Work other : otherWorks) {
+                if (other.bookId.equals(item.bookId)) {
+                    return other;
+                }
+            }
+            Work other = new Work(name, item.bookId, item.type);
+            otherWorks = Arrays.copyOf(otherWorks, otherWorks.length + 1);
+            otherWorks[otherWorks.length - 1] = other;
+            return other;
+        }
+
+        /* only called holding the catalogue lock, copies added straight after the last ones just widen that range */
+        private void addSlots(int from, int to) {
+            int[] current = ranges;
+            int[] added;
+            if (current.length > 0 && current[current.length - 1] == from) {
+                added = current.clone();
+            } else {
+                added = Arrays.copyOf(current, current.length + 2);
+                added[added.length - 2] = from;
+            }
+            added[added.length - 1] = to;
+            ranges = added;
+            copies += to - from;
+        }
+
+        /* there's no class literal for Queue<Hold>, but at runtime it is just Queue.class */
+        @SuppressWarnings("unchecked")
+        private static Class<Queue<Hold>> queueOfHolds() {
+            return (Class<Queue<Hold>>) (Class<?>) Queue.class;
+        }
+
+        private Queue<Hold> holds() {
+            Queue<Hold> current = holds;
+            if (current == null) {
+                HOLDS.compareAndSet(this, null, new ConcurrentLinkedQueue<Hold>());
+                current = holds;
+            }
+            return current;
+        }
+    }
+
+    /* someone waiting for a copy, first come first served */
+    private static class Hold {
+        private final User user;
+        private final CompletableFuture<Receipt> receipt = new CompletableFuture<>();
+
+        private Hold(User user) {
+            this.user = user;
+        }
+    }
+
+    /* takes the catalogue one item at a time, so it can come straight off a file or a query without building a list first */
+    public static class Builder {
+        private final Clock clock;
+        private final Map<ItemKey, Copies> itemsByTitle = new LinkedHashMap<>();
+        private final List<LoanListener> listeners = new ArrayList<>();
+        private LoanJournal journal;
+        private LoanHistory history;
+        private LibraryMetrics metrics = LibraryMetrics.NONE;
+        private LoanPolicy loanPolicy = LoanPolicy.standard();
+        private LoanCounts loanCounts;
+        private int size;
+
+        private Builder(Clock clock) {
+            this.clock = clock;
+        }
+
+        /* the same title and book id turn up on every copy, so every copy after the first shares the first one's strings */
+        public Builder add(String uniqueId, String bookId, ItemType type, String title) {
+            Copies copies = copiesOf(title, type);
+            Item first = copies.size == 0 ? null : copies.items[0];
+            String sharedBookId = first != null && first.bookId.equals(bookId) ? first.bookId : bookId;
+
+            copies.add(new Item(uniqueId, sharedBookId, type, copies.key.title));
+            size++;
+            return this;
+        }
+
+        public Builder add(Item item) {
+            copiesOf(item.title, item.type).add(item);
+            size++;
+            return this;
+        }
+
+        public Builder addAll(Iterable<Item> items) {
+            for (Item item : items) {
+                add(item);
+            }
+            return this;
+        }
+
+        public Builder addAll(Stream<Item> items) {
+            items.forEachOrdered(this::add);
+            return this;
+        }
+
+        /* copies that all share a title and type, handed over together so the title is only looked up once */
+        Builder addCopies(Item[] copies) {
+            if (copies.length > 0) {
+                copiesOf(copies[0].title, copies[0].type).addAll(copies);
+                size += copies.length;
+            }
+            return this;
+        }
+
+        public Builder metrics(LibraryMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /* how long things can be kept and how many at once, a week each and no limit unless told otherwise */
+        public Builder loanPolicy(LoanPolicy loanPolicy) {
+            this.loanPolicy = loanPolicy;
+            return this;
+        }
+
+        /* counts every user's loans together with the other libraries given the same counts, so one limit covers them all */
+        Builder loanCounts(LoanCounts loanCounts) {
+            this.loanCounts = loanCounts;
+            return this;
+        }
+
+        public Builder listener(LoanListener listener) {
+            listeners.add(listener);
+            return this;
+        }
+
+        /* the library comes back with the loans the journal remembers, and writes every new one to it */
+        public Builder journal(LoanJournal journal) {
+            this.journal = journal;
+            return listener(journal);
+        }
+
+        public Builder history(LoanHistory history) {
+            this.history = history;
+            return this;
+        }
+
+        public Library build() {
+            return new Library(this);
+        }
+
+        private Copies copiesOf(String title, ItemType type) {
+            return itemsByTitle.computeIfAbsent(new ItemKey(title, type), Copies::new);
+        }
+
+        private static class Copies {
+            /* the first key we saw for the title, its title string is the one every copy shares */
+            private final ItemKey key;
+            private Item[] items = new Item[1];
+            private int size;
+
+            private Copies(ItemKey key) {
+                this.key = key;
+            }
+
+            private void add(Item item) {
+                if (size == items.length) {
+                    items = Arrays.copyOf(items, size * 2);
+                }
+                items[size++] = item;
+            }
+
+            private void addAll(Item[] more) {
+                if (size + more.length > items.length) {
+                    items = Arrays.copyOf(items, Math.max(size + more.length, size * 2));
+                }
+                System.arraycopy(more, 0, items, size, more.length);
+                size += more.length;
+            }
+        }
+    }
+
+    /*
+     * who has a copy and since when, only its returned version changes once made so it can be swapped in and out
+     * of a StockItem atomically. whoever sets that is who gets the copy back
+     */
+    private static class Loan implements Comparable<Loan> {
+        private static final AtomicLongFieldUpdater<Loan> RETURNED_IN = AtomicLongFieldUpdater.newUpdater(Loan.class, "returnedIn");
+
+        private final StockItem stockItem;
+        private final int slot;
+        private final User user;
+        private final int userId;
+        /* epoch millis, so making a loan doesn't have to build a LocalDateTime */
+        private final long borrowedAt;
+        /* epoch day, overdue once today is past it */
+        private final int dueDay;
+        private final long sequence;
+        private final long lentIn;
+        /* 0 while it's out */
+        private volatile long returnedIn;
+        /* the copy's loan before this one, only kept while a snapshot that might want it is under way */
+        private final Loan previous;
+
+        private Loan(StockItem stockItem, User user, int userId, long borrowedAt, int dueDay, long sequence, long lentIn, Loan previous) {
+            this.stockItem = stockItem;
+            this.slot = stockItem == null ? -1 : stockItem.slot;
+            this.user = user;
+            this.userId = userId;
+            this.borrowedAt = borrowedAt;
+            this.dueDay = dueDay;
+            this.sequence = sequence;
+            this.lentIn = lentIn;
+            this.previous = previous;
+        }
+
+        /* sorts before every real loan due on or after the given day */
+        private static Loan dueFrom(int day) {
+            return new Loan(null, null, -1, Long.MIN_VALUE, day, 0, 0, null);
+        }
+
+        private boolean isCurrent() {
+            return stockItem.loan == this;
+        }
+
+        private Receipt receipt() {
+            return new Receipt(LocalDate.ofEpochDay(dueDay), stockItem.item());
+        }
+
+        @Override
+        public int compareTo(Loan other) {
+            int byDay = Integer.compare(dueDay, other.dueDay);
+            return byDay != 0 ? byDay : BY_BORROWED_TIME.compare(this, other);
+        }
+    }
+
+    private static final Comparator<Loan> BY_SLOT = Comparator.<Loan>comparingInt(loan -> loan.slot).thenComparingLong(loan -> loan.sequence);
+    private static final Comparator<Loan> BY_BORROWED_TIME = Comparator.<Loan>comparingLong(loan -> loan.borrowedAt).thenComparing(BY_SLOT);
+
+    /* who a user is to the library, what they have out, and how many of their limit are taken by loans and borrows under way */
+    private static class UserLoans {
+        /* the first User we saw for them, every loan of theirs shares it */
+        private final User user;
+        private final int id;
+        private final Set<Loan> loans = new ConcurrentSkipListSet<>(BY_SLOT);
+        /* their own unless the library shares its counts with others */
+        private final LoanCounts.Count out;
+
+        private UserLoans(User user, int id, LoanCounts.Count out) {
+            this.user = user;
+            this.id = id;
+            this.out = out;
+        }
+    }
+
+    /* one day on the library's clock, and the millis it runs between */
+    private static class Day {
+        private final long start;
+        private final long end;
+        private final int epochDay;
+
+        private Day(long start, long end, int epochDay) {
+            this.start = start;
+            this.end = end;
+            this.epochDay = epochDay;
+        }
+
+        private static Day of(long millis, ZoneId zone) {
+            LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+            return new Day(
+                    date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                    date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                    (int) date.toEpochDay());
         }
     }
 
-    private static class ItemKey {
+    static class ItemKey {
 
         private final String title;
         private final ItemType type;
+        private final int hash;
 
         public ItemKey(String title, ItemType type) {
             this.title = title;
             this.type = type;
+            this.hash = 31 * title.hashCode() + type.ordinal();
         }
 
         /* test this!!!! */
@@ -147,13 +1530,14 @@ public class Library {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             ItemKey itemKey = (ItemKey) o;
-            return Objects.equal(title, itemKey.title) &&
+            return hash == itemKey.hash &&
+                    title.equals(itemKey.title) &&
                     type == itemKey.type;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(title, type);
+            return hash;
         }
     }
 }
@@ -0,0 +1,32 @@
+package buckerooo.library;
+
+/*
+ * hears how long each call into a library took and how it went. every method does nothing unless overridden,
+ * and a library left with NONE doesn't even read the clock. times are in nanos
+ */
+public interface LibraryMetrics {
+    LibraryMetrics NONE = new LibraryMetrics() {
+    };
+
+    default void borrowed(ItemType type, long nanos) {
+    }
+
+    default void outOfStock(ItemType type, long nanos) {
+    }
+
+    default void notFound(ItemType type, long nanos) {
+    }
+
+    default void returned(ItemType type, long nanos) {
+    }
+
+    default void basket(int items, boolean filled, long nanos) {
+    }
+
+    default void overdueScanned(int overdue, long nanos) {
+    }
+
+    /* two threads went for the same word of the shelf at once and this one has to try again */
+    default void lostRace() {
+    }
+}
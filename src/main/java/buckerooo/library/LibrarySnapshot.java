@@ -0,0 +1,86 @@
+package buckerooo.library;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+
+/*
+ * a Library as it was when the snapshot was taken, for reports. nothing in it changes once it's made, so it
+ * can be asked from as many threads as you like without locks and without getting in the way of anyone borrowing.
+ * a copy is either on the shelf or out in it, never both, and everything it says was true at the same moment.
+ *
+ * which copies were on the shelf is a bit per slot, the copies that were out are three columns in catalogue
+ * order: the slot, the borrower's id and the epoch day it was due back. Items and Users are only made when asked for.
+ */
+public class LibrarySnapshot {
+    private final Library library;
+    /* the epoch day the snapshot was taken on, overdue is worked out against it */
+    private final int today;
+    private final long[] onTheShelf;
+    private final long inventoryCount;
+    private final int[] slots;
+    private final int[] users;
+    private final int[] dueDays;
+
+    LibrarySnapshot(Library library, int today, long[] onTheShelf, int[] slots, int[] users, int[] dueDays) {
+        this.library = library;
+        this.today = today;
+        this.onTheShelf = onTheShelf;
+        this.slots = slots;
+        this.users = users;
+        this.dueDays = dueDays;
+
+        long count = 0;
+        for (long word : onTheShelf) {
+            count += Long.bitCount(word);
+        }
+        this.inventoryCount = count;
+    }
+
+    public long inventoryCount() {
+        return inventoryCount;
+    }
+
+    public List<Item> currentInventory() {
+        List<Item> inventory = new ArrayList<>((int) inventoryCount);
+        for (int word = 0; word < onTheShelf.length; word++) {
+            for (long bits = onTheShelf[word]; bits != 0; bits &= bits - 1) {
+                inventory.add(library.itemAt((word << 6) + Long.numberOfTrailingZeros(bits)));
+            }
+        }
+        return inventory;
+    }
+
+    /* how many copies were out, overdue or not */
+    public int loansOut() {
+        return slots.length;
+    }
+
+    /* soonest due first, then in catalogue order */
+    public List<Item> overdueItems() {
+        return IntStream.range(0, slots.length)
+                .filter(loan -> dueDays[loan] < today)
+                .boxed()
+                .sorted(comparingInt(loan -> dueDays[loan]))
+                .map(loan -> library.itemAt(slots[loan]))
+                .collect(toList());
+    }
+
+    /* in catalogue order */
+    public List<Item> borrowedItems(User user) {
+        int userId = library.knownUserId(user);
+        List<Item> borrowed = new ArrayList<>();
+        if (userId < 0) {
+            return borrowed;
+        }
+        for (int loan = 0; loan < slots.length; loan++) {
+            if (users[loan] == userId) {
+                borrowed.add(library.itemAt(slots[loan]));
+            }
+        }
+        return borrowed;
+    }
+}
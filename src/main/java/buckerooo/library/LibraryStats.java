@@ -0,0 +1,103 @@
+package buckerooo.library;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* keeps count of everything a library tells its metrics, the counters are striped so busy threads don't fight over them */
+public class LibraryStats implements LibraryMetrics {
+    private final LongAdder[] borrowed = adders();
+    private final LongAdder[] outOfStock = adders();
+    private final LongAdder[] notFound = adders();
+    private final LongAdder[] returned = adders();
+    private final LongAdder basketsFilled = new LongAdder();
+    private final LongAdder basketsRefused = new LongAdder();
+    private final LongAdder lostRaces = new LongAdder();
+
+    public final LatencyHistogram borrowLatency = new LatencyHistogram();
+    public final LatencyHistogram returnLatency = new LatencyHistogram();
+    public final LatencyHistogram basketLatency = new LatencyHistogram();
+    public final LatencyHistogram overdueScanLatency = new LatencyHistogram();
+
+    @Override
+    public void borrowed(ItemType type, long nanos) {
+        borrowed[type.ordinal()].increment();
+        borrowLatency.record(nanos);
+    }
+
+    @Override
+    public void outOfStock(ItemType type, long nanos) {
+        outOfStock[type.ordinal()].increment();
+        borrowLatency.record(nanos);
+    }
+
+    @Override
+    public void notFound(ItemType type, long nanos) {
+        notFound[type.ordinal()].increment();
+    }
+
+    @Override
+    public void returned(ItemType type, long nanos) {
+        returned[type.ordinal()].increment();
+        returnLatency.record(nanos);
+    }
+
+    @Override
+    public void basket(int items, boolean filled, long nanos) {
+        (filled ? basketsFilled : basketsRefused).increment();
+        basketLatency.record(nanos);
+    }
+
+    @Override
+    public void overdueScanned(int overdue, long nanos) {
+        overdueScanLatency.record(nanos);
+    }
+
+    @Override
+    public void lostRace() {
+        lostRaces.increment();
+    }
+
+    public long borrowed(ItemType type) {
+        return borrowed[type.ordinal()].sum();
+    }
+
+    public long outOfStock(ItemType type) {
+        return outOfStock[type.ordinal()].sum();
+    }
+
+    public long notFound(ItemType type) {
+        return notFound[type.ordinal()].sum();
+    }
+
+    public long returned(ItemType type) {
+        return returned[type.ordinal()].sum();
+    }
+
+    public long basketsFilled() {
+        return basketsFilled.sum();
+    }
+
+    public long basketsRefused() {
+        return basketsRefused.sum();
+    }
+
+    public long lostRaces() {
+        return lostRaces.sum();
+    }
+
+    /* lost races per borrow or return, how often threads are getting in each other's way */
+    public double contention() {
+        long operations = 0;
+        for (ItemType type : ItemType.values()) {
+            operations += borrowed(type) + outOfStock(type) + returned(type);
+        }
+        return operations == 0 ? 0 : (double) lostRaces() / operations;
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[ItemType.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
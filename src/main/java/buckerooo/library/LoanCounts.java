@@ -0,0 +1,45 @@
+package buckerooo.library;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/*
+ * how many copies each user has out, or on their way out, as counted against their borrow limit. a Library on
+ * its own keeps a count in each of its users, the shards of a ShardedLibrary share one of these so a limit
+ * covers every shard and not each of them
+ */
+final class LoanCounts {
+    private final ConcurrentMap<User, Count> counts = new ConcurrentHashMap<>();
+
+    Count of(User user) {
+        Count count = counts.get(user);
+        return count != null ? count : counts.computeIfAbsent(user, anyone -> new Count());
+    }
+
+    static final class Count {
+        private static final AtomicIntegerFieldUpdater<Count> OUT = AtomicIntegerFieldUpdater.newUpdater(Count.class, "out");
+
+        private volatile int out;
+
+        int out() {
+            return out;
+        }
+
+        /* false, changing nothing, if that many more would take them over the limit */
+        boolean tryAdd(int copies, int limit) {
+            int current;
+            do {
+                current = out;
+                if (current + copies > limit) {
+                    return false;
+                }
+            } while (!OUT.compareAndSet(this, current, current + copies));
+            return true;
+        }
+
+        void add(int copies) {
+            OUT.addAndGet(this, copies);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package buckerooo.library;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * every loan a Library has finished with, and what the dashboards want to know about them kept up to date as
+ * loans are made and ended, so asking never has to go back over the history.
+ *
+ * a finished loan is a row of four ints appended to columns in chunks that never move: the copy's slot, the
+ * borrower's id, and the epoch days it went out and came back. copies and users are only turned back into
+ * Items and Users when the history is read.
+ *
+ * alongside that we count each title's borrows for each of the last few days in a ring of days, keep the
+ * total length of finished loans for the mean, and estimate how often every title has been borrowed in a
+ * count-min sketch so the most borrowed few can be kept without a counter per title. a day's counts are
+ * longs by title id, so counting a borrow doesn't allocate.
+ */
+public class LoanHistory {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /* rows of the sketch, each hashes a title to a different counter so a title is only over counted if it collides in all of them */
+    private static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 14;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int days;
+    private final int topTitles;
+    private volatile Library library;
+
+    /* the next row to write, a row is only read once its returned day is in */
+    private final AtomicInteger rows = new AtomicInteger();
+    private volatile Chunk[] chunks = new Chunk[0];
+    private final Object growLock = new Object();
+
+    /* borrows by title id for each of the last days, a day's counts are found at its epoch day modulo days */
+    private final AtomicReferenceArray<DayCounts> borrowsByDay;
+
+    /* finished loans and the days they were out for, by ItemType ordinal */
+    private final LongAdder[] finished = new LongAdder[ItemType.values().length];
+    private final LongAdder[] daysOut = new LongAdder[ItemType.values().length];
+
+    private final AtomicLongArray sketch = new AtomicLongArray(DEPTH << WIDTH_BITS);
+    /* the titles thought most borrowed, replaced whole holding topLock */
+    private volatile Top top = new Top(new int[0], new Work[0]);
+    /* the smallest estimate among the top titles when it was last full, a title has to beat it to get in */
+    private volatile long floor;
+    private final Object topLock = new Object();
+
+    private LoanHistory(int days, int topTitles) {
+        if (days < 1 || topTitles < 1) {
+            throw new IllegalArgumentException("Need at least a day and a title to keep, not " + days + " and " + topTitles);
+        }
+        this.days = days;
+        this.topTitles = topTitles;
+        this.borrowsByDay = new AtomicReferenceArray<>(days);
+        for (int type = 0; type < finished.length; type++) {
+            finished[type] = new LongAdder();
+            daysOut[type] = new LongAdder();
+        }
+    }
+
+    /* counts borrows per title for the last given number of days, and keeps the given number of most borrowed titles */
+    public static LoanHistory history(int days, int topTitles) {
+        return new LoanHistory(days, topTitles);
+    }
+
+    /* a history belongs to one library, whose slots and user ids its rows are written in */
+    void attach(Library library) {
+        if (this.library != null) {
+            throw new IllegalStateException("This history is already kept by another library");
+        }
+        this.library = library;
+    }
+
+    void borrowed(int titleId, Work work, int day) {
+        countBorrow(titleId, day);
+        if (estimateAfterAdding(titleId) > floor) {
+            considerForTop(titleId, work);
+        }
+    }
+
+    void returned(int slot, int userId, int borrowedDay, int returnedDay, ItemType type) {
+        int row = rows.getAndIncrement();
+        Chunk chunk = chunk(row >>> CHUNK_BITS);
+        int index = row & CHUNK_MASK;
+        chunk.slots[index] = slot;
+        chunk.users[index] = userId;
+        chunk.borrowedDays[index] = borrowedDay;
+        /* written last, anyone who sees it also sees the rest of the row */
+        chunk.returnedDays.lazySet(index, returnedDay + 1);
+
+        finished[type.ordinal()].increment();
+        daysOut[type.ordinal()].add(returnedDay - borrowedDay);
+    }
+
+    /* how many loans have finished, some of the very latest may still be being written */
+    public int finishedLoans() {
+        return rows.get();
+    }
+
+    /* every finished loan in the order they came back */
+    public void forEachLoan(Visitor visitor) {
+        Library library = this.library;
+        int written = rows.get();
+        Chunk[] chunks = this.chunks;
+        for (int row = 0; row < written && (row >>> CHUNK_BITS) < chunks.length; row++) {
+            Chunk chunk = chunks[row >>> CHUNK_BITS];
+            int index = row & CHUNK_MASK;
+            int returnedDay = chunk.returnedDays.get(index);
+            if (returnedDay != 0) {
+                visitor.loan(library.itemAt(chunk.slots[index]), library.user(chunk.users[index]),
+                        LocalDate.ofEpochDay(chunk.borrowedDays[index]), LocalDate.ofEpochDay(returnedDay - 1));
+            }
+        }
+    }
+
+    /* 0 for a day longer ago than we keep, or a title the library doesn't have */
+    public long borrowsOn(String title, ItemType type, LocalDate day) {
+        int titleId = library.titleId(title, type);
+        return titleId < 0 ? 0 : borrowsOn(titleId, (int) day.toEpochDay());
+    }
+
+    /* borrows of the title over the days we keep, up to and including today */
+    public long recentBorrows(String title, ItemType type) {
+        int titleId = library.titleId(title, type);
+        if (titleId < 0) {
+            return 0;
+        }
+        int today = library.today();
+        long borrows = 0;
+        for (int day = today - days + 1; day <= today; day++) {
+            borrows += borrowsOn(titleId, day);
+        }
+        return borrows;
+    }
+
+    public double meanLoanDays() {
+        long loans = 0;
+        long total = 0;
+        for (int type = 0; type < finished.length; type++) {
+            loans += finished[type].sum();
+            total += daysOut[type].sum();
+        }
+        return loans == 0 ? 0 : (double) total / loans;
+    }
+
+    public double meanLoanDays(ItemType type) {
+        long loans = finished[type.ordinal()].sum();
+        return loans == 0 ? 0 : (double) daysOut[type.ordinal()].sum() / loans;
+    }
+
+    /* the most borrowed titles since the library opened, most first */
+    public List<PopularTitle> topTitles() {
+        Top current = top;
+        List<PopularTitle> popular = new ArrayList<>(current.ids.length);
+        for (int i = 0; i < current.ids.length; i++) {
+            popular.add(new PopularTitle(current.works[i].title, current.works[i].type, estimate(current.ids[i])));
+        }
+        popular.sort((a, b) -> Long.compare(b.borrows, a.borrows));
+        return popular;
+    }
+
+    private void countBorrow(int titleId, int day) {
+        int index = Math.floorMod(day, days);
+        DayCounts counts = borrowsByDay.get(index);
+        while (counts == null || counts.day < day) {
+            /* the first borrow of a new day clears out the day that was here before */
+            DayCounts fresh = new DayCounts(day);
+            if (borrowsByDay.compareAndSet(index, counts, fresh)) {
+                counts = fresh;
+            } else {
+                counts = borrowsByDay.get(index);
+            }
+        }
+        if (counts.day != day) {
+            /* a borrow from further back than we keep */
+            return;
+        }
+
+        counts.add(titleId);
+    }
+
+    private long borrowsOn(int titleId, int day) {
+        DayCounts counts = borrowsByDay.get(Math.floorMod(day, days));
+        return counts == null || counts.day != day ? 0 : counts.borrows(titleId);
+    }
+
+    private long estimateAfterAdding(int titleId) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch.incrementAndGet(counter(titleId, row)));
+        }
+        return estimate;
+    }
+
+    private long estimate(int titleId) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch.get(counter(titleId, row)));
+        }
+        return estimate;
+    }
+
+    private static int counter(int titleId, int row) {
+        int hash = titleId * SEEDS[row];
+        hash ^= hash >>> 16;
+        return (row << WIDTH_BITS) | (hash & ((1 << WIDTH_BITS) - 1));
+    }
+
+    /* titles already at the top pass the floor on every borrow, so they're let off with a look at the array */
+    private void considerForTop(int titleId, Work work) {
+        if (top.has(titleId)) {
+            return;
+        }
+
+        synchronized (topLock) {
+            Top current = top;
+            if (current.has(titleId)) {
+                return;
+            }
+
+            if (current.ids.length < topTitles) {
+                int[] ids = Arrays.copyOf(current.ids, current.ids.length + 1);
+                Work[] works = Arrays.copyOf(current.works, current.works.length + 1);
+                ids[ids.length - 1] = titleId;
+                works[works.length - 1] = work;
+                top = new Top(ids, works);
+            } else {
+                /* estimates only go up, so whoever is lowest now is who it has to beat */
+                int lowest = 0;
+                for (int i = 1; i < current.ids.length; i++) {
+                    if (estimate(current.ids[i]) < estimate(current.ids[lowest])) {
+                        lowest = i;
+                    }
+                }
+                if (estimate(titleId) <= estimate(current.ids[lowest])) {
+                    floor = estimate(current.ids[lowest]);
+                    return;
+                }
+                int[] ids = current.ids.clone();
+                Work[] works = current.works.clone();
+                ids[lowest] = titleId;
+                works[lowest] = work;
+                top = new Top(ids, works);
+            }
+
+            if (top.ids.length == topTitles) {
+                long lowest = Long.MAX_VALUE;
+                for (int id : top.ids) {
+                    lowest = Math.min(lowest, estimate(id));
+                }
+                floor = lowest;
+            }
+        }
+    }
+
+    private Chunk chunk(int number) {
+        Chunk[] current = chunks;
+        if (number < current.length) {
+            return current[number];
+        }
+        synchronized (growLock) {
+            current = chunks;
+            if (number >= current.length) {
+                Chunk[] grown = Arrays.copyOf(current, Math.max(number + 1, current.length * 2));
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new Chunk();
+                }
+                chunks = grown;
+                current = grown;
+            }
+            return current[number];
+        }
+    }
+
+    /* hears about each finished loan in turn, the dates are the days it went out and came back */
+    public interface Visitor {
+        void loan(Item item, User user, LocalDate borrowed, LocalDate returned);
+    }
+
+    private static class Chunk {
+        private final int[] slots = new int[CHUNK_SIZE];
+        private final int[] users = new int[CHUNK_SIZE];
+        private final int[] borrowedDays = new int[CHUNK_SIZE];
+        /* the epoch day + 1, 0 until the row is written */
+        private final AtomicIntegerArray returnedDays = new AtomicIntegerArray(CHUNK_SIZE);
+    }
+
+    /* a day's borrows by title id, in chunks that are only made once a title in them is borrowed that day */
+    private static class DayCounts {
+        private final int day;
+        private volatile AtomicLongArray[] byTitle = new AtomicLongArray[0];
+
+        private DayCounts(int day) {
+            this.day = day;
+        }
+
+        private void add(int titleId) {
+            int number = titleId >>> CHUNK_BITS;
+            AtomicLongArray[] current = byTitle;
+            AtomicLongArray chunk = number < current.length ? current[number] : null;
+            if (chunk == null) {
+                chunk = grow(number);
+            }
+            chunk.incrementAndGet(titleId & CHUNK_MASK);
+        }
+
+        private long borrows(int titleId) {
+            int number = titleId >>> CHUNK_BITS;
+            AtomicLongArray[] current = byTitle;
+            AtomicLongArray chunk = number < current.length ? current[number] : null;
+            return chunk == null ? 0 : chunk.get(titleId & CHUNK_MASK);
+        }
+
+        private synchronized AtomicLongArray grow(int number) {
+            AtomicLongArray[] current = byTitle;
+            if (number >= current.length) {
+                current = Arrays.copyOf(current, Math.max(number + 1, current.length * 2));
+            } else if (current[number] != null) {
+                return current[number];
+            } else {
+                current = current.clone();
+            }
+            current[number] = new AtomicLongArray(CHUNK_SIZE);
+            byTitle = current;
+            return current[number];
+        }
+    }
+
+    private static class Top {
+        private final int[] ids;
+        private final Work[] works;
+
+        private Top(int[] ids, Work[] works) {
+            this.ids = ids;
+            this.works = works;
+        }
+
+        private boolean has(int titleId) {
+            for (int id : ids) {
+                if (id == titleId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package buckerooo.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/*
+ * remembers every loan a Library makes and ends so it can have them back after a restart.
+ *
+ * every borrow and return is appended to a memory mapped segment file and forced to disk before the borrower
+ * gets their receipt. whoever forces takes everything written so far with them, so under load one force
+ * covers a whole group of borrowers. now and then a snapshot of just the loans that are out is written, after
+ * which the older segments can go. starting up reads the last snapshot and replays the segments after it.
+ *
+ *   journal-<n>.log    [int length][int crc32][byte kind][long time][short id][id][short user][user] ... [int 0]
+ *   snapshot-<n>.bin   [int magic][int version] ([byte 1][long borrowedAt][utf id][utf user])* [byte 0][long count]
+ *
+ * a snapshot numbered n is replayed from journal segment n on.
+ */
+public class LoanJournal implements LoanListener, Closeable {
+    private static final int SNAPSHOT_MAGIC = 0x4C4F414E;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte BORROWED = 1;
+    private static final byte RETURNED = 2;
+
+    private final Path directory;
+    private final int segmentSize;
+
+    /* guards the segment we are writing and how far into it we've got */
+    private final Object appendLock = new Object();
+    private MappedByteBuffer segment;
+    private long segmentNumber;
+
+    /* only one thread forces at a time, everyone else queues here and mostly finds their write already went with it */
+    private final Object forceLock = new Object();
+    private volatile long durablePosition;
+
+    /* one snapshot at a time, they all write to the same temporary file */
+    private final Object snapshotLock = new Object();
+
+    private volatile Library library;
+
+    private LoanJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    public static LoanJournal open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static LoanJournal open(Path directory, int segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        LoanJournal journal = new LoanJournal(directory, segmentSize);
+
+        /* whatever a snapshot we crashed in the middle of left behind, it was never moved into place so nothing needs it */
+        Files.deleteIfExists(journal.temporarySnapshot());
+
+        /* never write after a tail that might have been torn by a crash, always start a new segment */
+        List<Long> segments = numbered("journal-", ".log", directory);
+        synchronized (journal.appendLock) {
+            journal.startSegment(segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1);
+        }
+        return journal;
+    }
+
+    @Override
+    public void borrowed(Item item, User user, long borrowedAt) {
+        awaitDurable(append(BORROWED, borrowedAt, item.uniqueId, user.username));
+    }
+
+    @Override
+    public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+        awaitDurable(append(RETURNED, returnedAt, item.uniqueId, ""));
+    }
+
+    /* called while the library is being built, before it lends anything */
+    void recover(Library library) {
+        this.library = library;
+        try {
+            long firstSegment = 1;
+            List<Long> snapshots = numbered("snapshot-", ".bin", directory);
+            if (!snapshots.isEmpty()) {
+                firstSegment = snapshots.get(snapshots.size() - 1);
+                readSnapshot(snapshotFile(firstSegment), library);
+            }
+
+            for (long number : numbered("journal-", ".log", directory)) {
+                if (number >= firstSegment && number < segmentNumber) {
+                    replay(segmentFile(number), library);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not recover the loans from " + directory, e);
+        }
+    }
+
+    /* writes down the loans that are out right now, so a restart only has to replay what happened after this */
+    public void snapshot() throws IOException {
+        Library library = this.library;
+        if (library == null) {
+            throw new IllegalStateException("The journal isn't being used by a library yet");
+        }
+
+        synchronized (snapshotLock) {
+            snapshot(library);
+        }
+    }
+
+    /* only called holding snapshotLock */
+    private void snapshot(Library library) throws IOException {
+        /*
+         * loans are journaled just before they're handed out, so the snapshot might miss one that's on its way.
+         * replaying the segment we were writing when it started as well puts those back, and anything it did see
+         * gets replayed over with the same thing.
+         */
+        long replayFrom;
+        synchronized (appendLock) {
+            replayFrom = segmentNumber;
+            startSegment(segmentNumber + 1);
+        }
+
+        Path written = temporarySnapshot();
+        try (FileChannel channel = FileChannel.open(written, WRITE, CREATE_NEW);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+
+            long[] count = new long[1];
+            library.currentLoans(new LoanListener() {
+                @Override
+                public void borrowed(Item item, User user, long borrowedAt) {
+                    try {
+                        out.writeByte(BORROWED);
+                        out.writeLong(borrowedAt);
+                        out.writeUTF(item.uniqueId);
+                        out.writeUTF(user.username);
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+                }
+            });
+
+            out.writeByte(0);
+            out.writeLong(count[0]);
+            out.flush();
+            channel.force(true);
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(written);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(written);
+            throw e;
+        }
+
+        Files.move(written, snapshotFile(replayFrom), ATOMIC_MOVE);
+
+        /* the snapshot has everything these held */
+        for (long number : numbered("snapshot-", ".bin", directory)) {
+            if (number < replayFrom) {
+                Files.delete(snapshotFile(number));
+            }
+        }
+        for (long number : numbered("journal-", ".log", directory)) {
+            if (number < replayFrom) {
+                Files.delete(segmentFile(number));
+            }
+        }
+    }
+
+    /* a snapshot that fails goes to the thread's uncaught exception handler, and the next one is still taken */
+    public ScheduledFuture<?> snapshotEvery(long period, TimeUnit unit, ScheduledExecutorService executor) {
+        return snapshotEvery(period, unit, executor, failure -> {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, failure);
+        });
+    }
+
+    /*
+     * a snapshot that fails is handed to whenFailed and the next one is still taken, an executor stops running a
+     * task for good the first time it throws
+     */
+    public ScheduledFuture<?> snapshotEvery(long period, TimeUnit unit, ScheduledExecutorService executor, Consumer<Exception> whenFailed) {
+        return executor.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                whenFailed.accept(e);
+            }
+        }, period, period, unit);
+    }
+
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            segment.force();
+        }
+    }
+
+    private long append(byte kind, long time, String uniqueId, String username) {
+        byte[] id = uniqueId.getBytes(UTF_8);
+        byte[] user = username.getBytes(UTF_8);
+
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 + 2 + id.length + 2 + user.length);
+        record.put(kind).putLong(time).putShort((short) id.length).put(id).putShort((short) user.length).put(user);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.capacity());
+
+        synchronized (appendLock) {
+            /* leave room for the zero length that marks the end */
+            if (segment.remaining() < 4 + 4 + record.capacity() + 4) {
+                startSegment(segmentNumber + 1);
+            }
+            segment.putInt(record.capacity());
+            segment.putInt((int) crc.getValue());
+            segment.put(record.array());
+            return position();
+        }
+    }
+
+    private void awaitDurable(long position) {
+        if (durablePosition >= position) {
+            return;
+        }
+
+        synchronized (forceLock) {
+            if (durablePosition >= position) {
+                return;
+            }
+
+            MappedByteBuffer toForce;
+            long upTo;
+            synchronized (appendLock) {
+                toForce = segment;
+                upTo = position();
+            }
+            toForce.force();
+            durablePosition = upTo;
+        }
+    }
+
+    /* only called holding appendLock, everything in the old segment is forced before we move on */
+    private void startSegment(long number) {
+        try {
+            if (segment != null) {
+                segment.force();
+                durablePosition = Math.max(durablePosition, position());
+            }
+
+            try (FileChannel channel = FileChannel.open(segmentFile(number), READ, WRITE, CREATE_NEW)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            segmentNumber = number;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start journal segment " + number + " in " + directory, e);
+        }
+    }
+
+    /* how far into the journal we are, across every segment */
+    private long position() {
+        return segmentNumber * segmentSize + segment.position();
+    }
+
+    private static void readSnapshot(Path snapshot, Library library) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException(snapshot + " is not a loan snapshot we can read");
+            }
+
+            long count = 0;
+            while (in.readByte() == BORROWED) {
+                long borrowedAt = in.readLong();
+                String uniqueId = in.readUTF();
+                library.restoreLoan(uniqueId, User.user(in.readUTF()), borrowedAt);
+                count++;
+            }
+
+            if (in.readLong() != count) {
+                throw new IOException(snapshot + " is incomplete");
+            }
+        }
+    }
+
+    /* stops at the end marker, or at the first record that didn't make it to disk whole */
+    private static void replay(Path segmentFile, Library library) throws IOException {
+        ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(segmentFile));
+        CRC32 crc = new CRC32();
+
+        while (segment.remaining() >= 8) {
+            int length = segment.getInt();
+            int expectedCrc = segment.getInt();
+            if (length <= 0 || length > segment.remaining()) {
+                return;
+            }
+
+            crc.reset();
+            crc.update(segment.array(), segment.position(), length);
+            if ((int) crc.getValue() != expectedCrc) {
+                return;
+            }
+
+            byte kind = segment.get();
+            long time = segment.getLong();
+            String uniqueId = string(segment);
+            String username = string(segment);
+
+            if (kind == BORROWED) {
+                library.restoreLoan(uniqueId, User.user(username), time);
+            } else if (kind == RETURNED) {
+                library.restoreReturn(uniqueId);
+            }
+        }
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private Path segmentFile(long number) {
+        return directory.resolve(String.format("journal-%016d.log", number));
+    }
+
+    private Path temporarySnapshot() {
+        return directory.resolve("snapshot.tmp");
+    }
+
+    private Path snapshotFile(long number) {
+        return directory.resolve(String.format("snapshot-%016d.bin", number));
+    }
+
+    private static List<Long> numbered(String prefix, String suffix, Path directory) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+}
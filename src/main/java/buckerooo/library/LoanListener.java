@@ -0,0 +1,51 @@
+package buckerooo.library;
+
+import java.util.List;
+
+/*
+ * hears about every loan a Library makes and ends. borrowed is called before anyone else can see the loan and
+ * returned before the copy goes back on the shelf, so a listener that blocks holds up that one borrower and
+ * nobody else. times are epoch millis from the library's clock.
+ */
+public interface LoanListener {
+
+    LoanListener NONE = new LoanListener() {
+        @Override
+        public void borrowed(Item item, User user, long borrowedAt) {
+        }
+
+        @Override
+        public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+        }
+    };
+
+    void borrowed(Item item, User user, long borrowedAt);
+
+    void returned(Item item, User user, long borrowedAt, long returnedAt);
+
+    static LoanListener all(List<LoanListener> listeners) {
+        if (listeners.isEmpty()) {
+            return NONE;
+        }
+        if (listeners.size() == 1) {
+            return listeners.get(0);
+        }
+
+        LoanListener[] everyone = listeners.toArray(new LoanListener[listeners.size()]);
+        return new LoanListener() {
+            @Override
+            public void borrowed(Item item, User user, long borrowedAt) {
+                for (LoanListener listener : everyone) {
+                    listener.borrowed(item, user, borrowedAt);
+                }
+            }
+
+            @Override
+            public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+                for (LoanListener listener : everyone) {
+                    listener.returned(item, user, borrowedAt, returnedAt);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package buckerooo.library;
+
+import java.util.Arrays;
+
+/* how long each type of item can be kept and how many copies someone can have out at once, asked once per library or per borrow */
+public interface LoanPolicy {
+
+    int loanDays(ItemType type);
+
+    int borrowLimit(User user);
+
+    /* a week for everything and no limit, like the library has always lent */
+    static Standard standard() {
+        int[] loanDays = new int[ItemType.values().length];
+        Arrays.fill(loanDays, 7);
+        return new Standard(loanDays, Integer.MAX_VALUE);
+    }
+
+    /* a loan period for each type and the same limit for everyone, changing either gives you a new policy */
+    class Standard implements LoanPolicy {
+        private final int[] loanDays;
+        private final int borrowLimit;
+
+        private Standard(int[] loanDays, int borrowLimit) {
+            this.loanDays = loanDays;
+            this.borrowLimit = borrowLimit;
+        }
+
+        public Standard loanPeriod(ItemType type, int days) {
+            if (days < 0) {
+                throw new IllegalArgumentException("A loan can't be " + days + " days long");
+            }
+            int[] changed = loanDays.clone();
+            changed[type.ordinal()] = days;
+            return new Standard(changed, borrowLimit);
+        }
+
+        public Standard borrowLimit(int copies) {
+            if (copies < 1) {
+                throw new IllegalArgumentException("Everyone has to be able to borrow something, not " + copies);
+            }
+            return new Standard(loanDays, copies);
+        }
+
+        @Override
+        public int loanDays(ItemType type) {
+            return loanDays[type.ordinal()];
+        }
+
+        @Override
+        public int borrowLimit(User user) {
+            return borrowLimit;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package buckerooo.library;
+
+/* an overdue item with what Library orders its overdue items by, so the lists from several libraries can be merged */
+final class OverdueLoan implements Comparable<OverdueLoan> {
+    final Item item;
+    /* epoch day */
+    final int dueDay;
+    /* epoch millis */
+    final long borrowedAt;
+
+    OverdueLoan(Item item, int dueDay, long borrowedAt) {
+        this.item = item;
+        this.dueDay = dueDay;
+        this.borrowedAt = borrowedAt;
+    }
+
+    @Override
+    public int compareTo(OverdueLoan other) {
+        int byDay = Integer.compare(dueDay, other.dueDay);
+        return byDay != 0 ? byDay : Long.compare(borrowedAt, other.borrowedAt);
+    }
+}
@@ -0,0 +1,21 @@
+package buckerooo.library;
+
+import java.util.List;
+
+/* everything one user has that is overdue, oldest loan first, and the most days late any of them is */
+public class OverdueNotice {
+    public final User user;
+    public final List<Item> items;
+    public final int daysOverdue;
+
+    public OverdueNotice(User user, List<Item> items, int daysOverdue) {
+        this.user = user;
+        this.items = items;
+        this.daysOverdue = daysOverdue;
+    }
+
+    @Override
+    public String toString() {
+        return user.username + " " + items.size() + " item(s) " + daysOverdue + " day(s) overdue";
+    }
+}
@@ -0,0 +1,19 @@
+package buckerooo.library;
+
+/* a title among the most borrowed, borrows is an estimate that can only be over the true count, never under */
+public class PopularTitle {
+    public final String title;
+    public final ItemType type;
+    public final long borrows;
+
+    public PopularTitle(String title, ItemType type, long borrows) {
+        this.title = title;
+        this.type = type;
+        this.borrows = borrows;
+    }
+
+    @Override
+    public String toString() {
+        return title + " (" + type + ") " + borrows;
+    }
+}
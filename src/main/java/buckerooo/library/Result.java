@@ -0,0 +1,53 @@
+package buckerooo.library;
+
+/* how a call into the library went, so async callers get told instead of having to catch a checked exception */
+public class Result<T> {
+    public enum Outcome {
+        OK, NOT_FOUND, OUT_OF_STOCK, LIMIT_REACHED
+    }
+
+    public final Outcome outcome;
+    /* null unless the outcome is OK */
+    public final T value;
+    /* what went wrong, null when nothing did */
+    public final String reason;
+
+    private Result(Outcome outcome, T value, String reason) {
+        this.outcome = outcome;
+        this.value = value;
+        this.reason = reason;
+    }
+
+    public static <T> Result<T> ok(T value) {
+        return new Result<>(Outcome.OK, value, null);
+    }
+
+    public static <T> Result<T> notFound(ItemNotFoundException e) {
+        return new Result<>(Outcome.NOT_FOUND, null, e.getMessage());
+    }
+
+    public static <T> Result<T> outOfStock(ItemOutOfStockException e) {
+        return new Result<>(Outcome.OUT_OF_STOCK, null, e.getMessage());
+    }
+
+    public static <T> Result<T> limitReached(BorrowLimitException e) {
+        return new Result<>(Outcome.LIMIT_REACHED, null, e.getMessage());
+    }
+
+    public boolean isOk() {
+        return outcome == Outcome.OK;
+    }
+
+    /* the same failure for a result of another type, only makes sense when this one isn't OK */
+    <U> Result<U> failure() {
+        if (isOk()) {
+            throw new IllegalStateException("This result didn't fail");
+        }
+        return new Result<>(outcome, null, reason);
+    }
+
+    @Override
+    public String toString() {
+        return isOk() ? "OK " + value : outcome + " " + reason;
+    }
+}
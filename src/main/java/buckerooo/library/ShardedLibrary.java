@@ -0,0 +1,195 @@
+package buckerooo.library;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static buckerooo.library.ItemNotFoundException.itemNotFound;
+import static buckerooo.library.ItemOutOfStockException.itemOutOfStock;
+
+/*
+ * splits the catalogue by title across several Library shards, each with its own indexes and counters, so
+ * borrowing and returning a title only ever touches one of them. anything about the whole catalogue asks
+ * every shard at once on the pool and joins the answers up in shard order, apart from the overdue items which
+ * are merged by due date.
+ */
+public class ShardedLibrary implements LendingLibrary {
+    private final Library[] shards;
+    private final ForkJoinPool pool;
+
+    public ShardedLibrary(Clock clock, List<Item> libraryItems, int shards) {
+        this(clock, libraryItems, shards, LoanPolicy.standard(), ForkJoinPool.commonPool());
+    }
+
+    public ShardedLibrary(Clock clock, List<Item> libraryItems, int shards, ForkJoinPool pool) {
+        this(clock, libraryItems, shards, LoanPolicy.standard(), pool);
+    }
+
+    /* every shard lends under the policy, and a borrower's limit counts their loans from all the shards together */
+    public ShardedLibrary(Clock clock, List<Item> libraryItems, int shards, LoanPolicy loanPolicy) {
+        this(clock, libraryItems, shards, loanPolicy, ForkJoinPool.commonPool());
+    }
+
+    public ShardedLibrary(Clock clock, List<Item> libraryItems, int shards, LoanPolicy loanPolicy, ForkJoinPool pool) {
+        LoanCounts loanCounts = new LoanCounts();
+        Library.Builder[] builders = new Library.Builder[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            builders[shard] = Library.builder(clock).loanPolicy(loanPolicy).loanCounts(loanCounts);
+        }
+        for (Item item : libraryItems) {
+            builders[shardOf(item.title, item.type, shards)].add(item);
+        }
+
+        this.shards = new Library[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            this.shards[shard] = builders[shard].build();
+        }
+        this.pool = pool;
+    }
+
+    @Override
+    public List<Item> currentInventory() {
+        return Libraries.askEvery(pool, shards, Library::currentInventory);
+    }
+
+    @Override
+    public long inventoryCount() {
+        long count = 0;
+        for (Library shard : shards) {
+            count += shard.inventoryCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int availableCopies(String title, ItemType type) throws ItemNotFoundException {
+        return shardFor(title, type).availableCopies(title, type);
+    }
+
+    @Override
+    public Receipt borrowItem(String title, ItemType type, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        return shardFor(title, type).borrowItem(title, type, user);
+    }
+
+    /*
+     * takes every copy off its shard's shelf before lending any of them, like Library.borrowItems does, so a
+     * basket that can't be filled was never lent at all. the receipts come back in basket order
+     */
+    @Override
+    public List<Receipt> borrowItems(List<BasketItem> basket, User user) throws ItemNotFoundException, ItemOutOfStockException, BorrowLimitException {
+        int[] shardOf = new int[basket.size()];
+        for (int i = 0; i < shardOf.length; i++) {
+            BasketItem basketItem = basket.get(i);
+            shardOf[i] = shardOf(basketItem.title, basketItem.type, shards.length);
+            if (shards[shardOf[i]].titleId(basketItem.title, basketItem.type) < 0) {
+                throw itemNotFound(basketItem.title, basketItem.type);
+            }
+        }
+
+        /* the shards share their loan counts, so the whole basket can be counted towards the limit on any of them */
+        shards[0].reserveCopies(user, shardOf.length);
+        int[] slots = new int[shardOf.length];
+        int taken = 0;
+        try {
+            for (; taken < slots.length; taken++) {
+                BasketItem basketItem = basket.get(taken);
+                slots[taken] = shards[shardOf[taken]].takeCopy(basketItem.title, basketItem.type);
+                if (slots[taken] < 0) {
+                    throw itemOutOfStock(basketItem.title, basketItem.type);
+                }
+            }
+        } catch (ItemOutOfStockException | RuntimeException e) {
+            for (int i = 0; i < taken; i++) {
+                shards[shardOf[i]].putBackTaken(slots[i]);
+            }
+            shards[0].releaseCopies(user, shardOf.length);
+            throw e;
+        }
+
+        return Libraries.lendAll(slots.length, new Libraries.TakenCopies() {
+            @Override
+            public Receipt lend(int copy) {
+                return shards[shardOf[copy]].lendTaken(slots[copy], user);
+            }
+
+            @Override
+            public void giveBack(int copy) {
+                shards[shardOf[copy]].giveBack(slots[copy]);
+            }
+
+            @Override
+            public void putBack(int copy) {
+                shards[0].releaseCopies(user, 1);
+                shards[shardOf[copy]].putBackTaken(slots[copy]);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Receipt> placeHold(String title, ItemType type, User user) throws ItemNotFoundException {
+        return shardFor(title, type).placeHold(title, type, user);
+    }
+
+    @Override
+    public void returnItem(Item item) throws ItemNotFoundException {
+        shardFor(item.title, item.type).returnItem(item);
+    }
+
+    @Override
+    public int addItems(Iterable<Item> items) {
+        List<List<Item>> itemsForShard = byShard(items);
+        int added = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            added += shards[shard].addItems(itemsForShard.get(shard));
+        }
+        return added;
+    }
+
+    @Override
+    public void withdrawItem(Item item) throws ItemNotFoundException {
+        shardFor(item.title, item.type).withdrawItem(item);
+    }
+
+    @Override
+    public int withdrawItems(Iterable<Item> items) {
+        List<List<Item>> itemsForShard = byShard(items);
+        int withdrawn = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            withdrawn += shards[shard].withdrawItems(itemsForShard.get(shard));
+        }
+        return withdrawn;
+    }
+
+    /* soonest due first across every shard */
+    @Override
+    public List<Item> overdueItems() {
+        return Libraries.overdueItems(pool, shards);
+    }
+
+    @Override
+    public List<Item> borrowedItems(User user) {
+        return Libraries.askEvery(pool, shards, shard -> shard.borrowedItems(user));
+    }
+
+    private List<List<Item>> byShard(Iterable<Item> items) {
+        List<List<Item>> itemsForShard = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            itemsForShard.add(new ArrayList<>());
+        }
+        for (Item item : items) {
+            itemsForShard.get(shardOf(item.title, item.type, shards.length)).add(item);
+        }
+        return itemsForShard;
+    }
+
+    private Library shardFor(String title, ItemType type) {
+        return shards[shardOf(title, type, shards.length)];
+    }
+
+    private static int shardOf(String title, ItemType type, int shards) {
+        int hash = (31 * title.hashCode() + type.ordinal()) * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), shards);
+    }
+}
@@ -0,0 +1,192 @@
+package buckerooo.library;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Spliterator.DISTINCT;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterator.SORTED;
+
+/*
+ * one bit per slot, set while that copy is sitting on the shelf waiting to be borrowed.
+ *
+ * the bits are kept in chunks that never move once made, so the shelf can grow while other threads are taking
+ * copies off it. a slot past the end is never on the shelf
+ */
+class Shelf {
+    /* slots per chunk, a power of two so it lines up with the library's chunks of copies */
+    static final int CHUNK_BITS = 12;
+    private static final int WORD_BITS = CHUNK_BITS - 6;
+    private static final int WORD_MASK = (1 << WORD_BITS) - 1;
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+    /* only told when a compareAndSet fails, so it's off the path of an uncontended take */
+    private final LibraryMetrics metrics;
+
+    Shelf(int slots) {
+        this(slots, LibraryMetrics.NONE);
+    }
+
+    Shelf(int slots, LibraryMetrics metrics) {
+        this.metrics = metrics;
+        grow(slots);
+    }
+
+    /* makes room for at least this many slots, only one thread may grow the shelf at a time */
+    void grow(int slots) {
+        AtomicLongArray[] current = chunks;
+        int needed = (slots + (1 << CHUNK_BITS) - 1) >>> CHUNK_BITS;
+        if (needed > current.length) {
+            AtomicLongArray[] grown = Arrays.copyOf(current, needed);
+            for (int chunk = current.length; chunk < needed; chunk++) {
+                grown[chunk] = new AtomicLongArray(1 << WORD_BITS);
+            }
+            chunks = grown;
+        }
+    }
+
+    boolean isOnTheShelf(int slot) {
+        AtomicLongArray[] chunks = this.chunks;
+        int word = slot >>> 6;
+        return (word >>> WORD_BITS) < chunks.length && (chunks[word >>> WORD_BITS].get(word & WORD_MASK) & (1L << slot)) != 0;
+    }
+
+    /* takes this one copy off the shelf, false if someone already has it */
+    boolean take(int slot) {
+        AtomicLongArray words = chunkOf(slot);
+        int word = (slot >>> 6) & WORD_MASK;
+        long bit = 1L << slot;
+
+        long current = words.get(word);
+        while ((current & bit) != 0) {
+            if (words.compareAndSet(word, current, current & ~bit)) {
+                return true;
+            }
+            metrics.lostRace();
+            current = words.get(word);
+        }
+        return false;
+    }
+
+    void putBack(int slot) {
+        AtomicLongArray words = chunkOf(slot);
+        int word = (slot >>> 6) & WORD_MASK;
+        long bit = 1L << slot;
+
+        long current = words.get(word);
+        while ((current & bit) == 0 && !words.compareAndSet(word, current, current | bit)) {
+            metrics.lostRace();
+            current = words.get(word);
+        }
+    }
+
+    /* the first slot at or after from that is on the shelf, -1 if there aren't any */
+    int nextOnTheShelf(int from) {
+        AtomicLongArray[] chunks = this.chunks;
+        int words = chunks.length << WORD_BITS;
+        int word = from >>> 6;
+        if (word >= words) {
+            return -1;
+        }
+
+        long bits = word(chunks, word) & (-1L << from);
+        while (bits == 0) {
+            if (++word == words) {
+                return -1;
+            }
+            bits = word(chunks, word);
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /*
+     * the slot of the nth copy on the shelf counting from 0, skipping whole words at a time, -1 if there aren't
+     * that many. it counts every word before the one it lands on, so a deep page costs a bit count per 64 slots
+     * before it. keeping a count for each chunk would let it skip whole chunks, but every take and put back
+     * would then fight over that count
+     */
+    int nthOnTheShelf(int nth) {
+        if (nth < 0) {
+            throw new IllegalArgumentException("There is no copy " + nth + " on the shelf, they count from 0");
+        }
+        AtomicLongArray[] chunks = this.chunks;
+        for (int word = 0; word < chunks.length << WORD_BITS; word++) {
+            long bits = word(chunks, word);
+            int onThisWord = Long.bitCount(bits);
+            if (nth < onThisWord) {
+                for (; nth > 0; nth--) {
+                    bits &= bits - 1;
+                }
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            nth -= onThisWord;
+        }
+        return -1;
+    }
+
+    /* the copies on the shelf from the given slot on, read as we go so it never copies the whole shelf */
+    IntStream slotsOnTheShelf(int from) {
+        PrimitiveIterator.OfInt slots = new PrimitiveIterator.OfInt() {
+            private int next = from < 0 ? -1 : nextOnTheShelf(from);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                int slot = next;
+                next = nextOnTheShelf(slot + 1);
+                return slot;
+            }
+        };
+        return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(slots, ORDERED | SORTED | DISTINCT | NONNULL), false);
+    }
+
+    /* takes a copy off the shelf looking from start up to the end of the range, then round from the beginning, -1 if they're all out */
+    int takeAny(int from, int to, int start) {
+        int slot = takeFirst(start, to);
+        return slot >= 0 ? slot : takeFirst(from, start);
+    }
+
+    private int takeFirst(int from, int to) {
+        int slot = from;
+        while (slot < to) {
+            AtomicLongArray words = chunkOf(slot);
+            int word = (slot >>> 6) & WORD_MASK;
+            int wordStart = (slot >>> 6) << 6;
+            int wordEnd = Math.min(to, wordStart + 64);
+            long range = (-1L << (slot - wordStart)) & (-1L >>> (64 - (wordEnd - wordStart)));
+
+            long current = words.get(word);
+            while ((current & range) != 0) {
+                long bit = Long.lowestOneBit(current & range);
+                if (words.compareAndSet(word, current, current & ~bit)) {
+                    return wordStart + Long.numberOfTrailingZeros(bit);
+                }
+                metrics.lostRace();
+                current = words.get(word);
+            }
+            slot = wordEnd;
+        }
+        return -1;
+    }
+
+    private AtomicLongArray chunkOf(int slot) {
+        return chunks[slot >>> CHUNK_BITS];
+    }
+
+    private static long word(AtomicLongArray[] chunks, int word) {
+        return chunks[word >>> WORD_BITS].get(word & WORD_MASK);
+    }
+}
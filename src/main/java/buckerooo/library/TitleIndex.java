@@ -0,0 +1,210 @@
+package buckerooo.library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+import static java.util.Collections.emptySet;
+
+/*
+ * finds titles by how they start or by the words in them, case doesn't matter for either.
+ *
+ * every distinct title gets an id which is its place in key order, so a prefix is a range of ids found with two
+ * binary searches and the posting list of a word, the ids of the titles it is in, comes out already sorted. a
+ * query with several words walks the shortest posting list and binary searches the others.
+ *
+ * titles added after the library was built go in a small concurrent index of their own, so the arrays never
+ * change and adding a title costs as much as its own words
+ */
+class TitleIndex {
+    private static final int[] NO_TITLES = new int[0];
+
+    /* in key order, a title's id is where it is in these */
+    private final String[] names;
+    private final String[] keys;
+    private final Map<String, int[]> postings;
+
+    /* key then name, as different names can have the same key */
+    private final ConcurrentSkipListMap<String, String> added = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Set<String>> addedWords = new ConcurrentHashMap<>();
+
+    TitleIndex(Collection<String> titles) {
+        String[] unsorted = titles.toArray(new String[titles.size()]);
+        String[] unsortedKeys = new String[unsorted.length];
+        Integer[] order = new Integer[unsorted.length];
+        for (int i = 0; i < unsorted.length; i++) {
+            unsortedKeys[i] = key(unsorted[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer, String>comparing(i -> unsortedKeys[i]).thenComparing(i -> unsorted[i]));
+
+        this.names = new String[unsorted.length];
+        this.keys = new String[unsorted.length];
+        Map<String, IntList> words = new HashMap<>();
+        for (int id = 0; id < order.length; id++) {
+            names[id] = unsorted[order[id]];
+            keys[id] = unsortedKeys[order[id]];
+            for (String word : words(keys[id])) {
+                words.computeIfAbsent(word, w -> new IntList()).add(id);
+            }
+        }
+
+        this.postings = new HashMap<>(words.size() * 4 / 3 + 1);
+        for (Map.Entry<String, IntList> word : words.entrySet()) {
+            postings.put(word.getKey(), word.getValue().toArray());
+        }
+    }
+
+    /* only for titles we didn't have when the index was built */
+    void add(String title) {
+        String key = key(title);
+        added.put(key + '\u0000' + title, title);
+        for (String word : words(key)) {
+            addedWords.computeIfAbsent(word, w -> new ConcurrentSkipListSet<>()).add(title);
+        }
+    }
+
+    /* the titles that start with the prefix, in order, leaving out any no longer stocked */
+    List<String> startingWith(String prefix, int limit, Predicate<String> stocked) {
+        String key = key(prefix);
+        List<String> found = new ArrayList<>(Math.min(limit, 16));
+        for (int id = firstAtOrAfter(key); id < keys.length && found.size() < limit && keys[id].startsWith(key); id++) {
+            if (stocked.test(names[id])) {
+                found.add(names[id]);
+            }
+        }
+
+        if (added.isEmpty()) {
+            return found;
+        }
+        List<String> alsoFound = new ArrayList<>();
+        for (String title : added.subMap(key, key + '\uffff').values()) {
+            if (alsoFound.size() == limit) {
+                break;
+            }
+            if (stocked.test(title)) {
+                alsoFound.add(title);
+            }
+        }
+        return inOrder(found, alsoFound, limit);
+    }
+
+    /* the titles that have every word of the query in them, in order, leaving out any no longer stocked */
+    List<String> containingAll(String query, int limit, Predicate<String> stocked) {
+        List<String> wanted = words(key(query));
+        if (wanted.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int[][] lists = new int[wanted.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.getOrDefault(wanted.get(i), NO_TITLES);
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+
+        List<String> found = new ArrayList<>(Math.min(limit, 16));
+        for (int i = 0; i < lists[0].length && found.size() < limit; i++) {
+            int id = lists[0][i];
+            if (inAll(id, lists) && stocked.test(names[id])) {
+                found.add(names[id]);
+            }
+        }
+
+        if (addedWords.isEmpty()) {
+            return found;
+        }
+        List<String> alsoFound = new ArrayList<>(addedWords.getOrDefault(wanted.get(0), emptySet()));
+        for (int i = 1; i < wanted.size(); i++) {
+            alsoFound.retainAll(addedWords.getOrDefault(wanted.get(i), emptySet()));
+        }
+        alsoFound.removeIf(stocked.negate());
+        alsoFound.sort(Comparator.comparing(TitleIndex::key).thenComparing(title -> title));
+        return inOrder(found, alsoFound, limit);
+    }
+
+    /* both lists are already in key order */
+    private static List<String> inOrder(List<String> built, List<String> added, int limit) {
+        List<String> merged = new ArrayList<>(Math.min(limit, built.size() + added.size()));
+        int b = 0;
+        int a = 0;
+        while (merged.size() < limit && (b < built.size() || a < added.size())) {
+            boolean takeBuilt = a == added.size()
+                    || b < built.size() && key(built.get(b)).compareTo(key(added.get(a))) <= 0;
+            merged.add(takeBuilt ? built.get(b++) : added.get(a++));
+        }
+        return merged;
+    }
+
+    private static boolean inAll(int id, int[][] lists) {
+        for (int i = 1; i < lists.length; i++) {
+            if (Arrays.binarySearch(lists[i], id) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int firstAtOrAfter(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static String key(String title) {
+        return title.toLowerCase(Locale.ROOT);
+    }
+
+    /* runs of letters and digits, a title with the same word twice only lists it once */
+    private static List<String> words(String key) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= key.length(); i++) {
+            boolean inWord = i < key.length() && Character.isLetterOrDigit(key.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                String word = key.substring(start, i);
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static class IntList {
+        private int[] values = new int[2];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
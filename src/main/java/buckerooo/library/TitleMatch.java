@@ -0,0 +1,21 @@
+package buckerooo.library;
+
+/* a title the search found, and how many of its copies are on the shelf right now */
+public class TitleMatch {
+    public final String title;
+    public final ItemType type;
+    public final int availableCopies;
+    public final int copies;
+
+    public TitleMatch(String title, ItemType type, int availableCopies, int copies) {
+        this.title = title;
+        this.type = type;
+        this.availableCopies = availableCopies;
+        this.copies = copies;
+    }
+
+    @Override
+    public String toString() {
+        return title + " (" + type + ") " + availableCopies + "/" + copies;
+    }
+}
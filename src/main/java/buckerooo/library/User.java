@@ -22,8 +22,9 @@ public class User {
         return Objects.equal(username, user.username);
     }
 
+    /* asked on every borrow and return, Objects.hashCode would make a varargs array each time */
     @Override
     public int hashCode() {
-        return Objects.hashCode(username);
+        return username == null ? 0 : username.hashCode();
     }
 }
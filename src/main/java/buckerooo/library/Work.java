@@ -0,0 +1,19 @@
+package buckerooo.library;
+
+/* what the copies of a title have in common, made once and shared by all of them instead of repeated on every copy */
+final class Work {
+    final String title;
+    final String bookId;
+    final ItemType type;
+
+    Work(String title, String bookId, ItemType type) {
+        this.title = title;
+        this.bookId = bookId;
+        this.type = type;
+    }
+
+    /* the copy as callers see it, made when asked for so the library never has to hold one per copy */
+    Item copy(String uniqueId) {
+        return new Item(uniqueId, bookId, type, title);
+    }
+}
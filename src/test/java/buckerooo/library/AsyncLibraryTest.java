@@ -0,0 +1,111 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.ItemType.VHS;
+import static buckerooo.library.Result.Outcome.LIMIT_REACHED;
+import static buckerooo.library.Result.Outcome.NOT_FOUND;
+import static buckerooo.library.Result.Outcome.OK;
+import static buckerooo.library.Result.Outcome.OUT_OF_STOCK;
+import static buckerooo.library.User.user;
+import static java.time.Clock.fixed;
+import static java.time.Instant.now;
+import static java.time.ZoneId.systemDefault;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AsyncLibraryTest {
+    private final Library library = new Library(fixed(now(), systemDefault()), asList(dvd("1", "7", "Pi"), dvd("2", "7", "Pi")));
+
+    @Test
+    public void runningOutOfStockOrAskingForSomethingWeDontHaveComeBackAsResults() throws Exception {
+        AsyncLibrary async = new AsyncLibrary(library);
+
+        assertThat(async.borrowItem("Pi", DVD, user("buck")).get().outcome, equalTo(OK));
+        assertThat(async.borrowItem("Pi", DVD, user("buck")).get().outcome, equalTo(OK));
+
+        Result<Receipt> outOfStock = async.borrowItem("Pi", DVD, user("buck")).get();
+        assertThat(outOfStock.outcome, equalTo(OUT_OF_STOCK));
+        assertThat(outOfStock.value, equalTo(null));
+
+        assertThat(async.borrowItem("Pi", VHS, user("buck")).get().outcome, equalTo(NOT_FOUND));
+        assertThat(async.returnItem(dvd("3", "7", "Pi")).get().outcome, equalTo(NOT_FOUND));
+        assertThat(async.borrowedItems(user("buck")).get().size(), equalTo(2));
+    }
+
+    @Test
+    public void aHoldCompletesWhenTheCopyComesBack() throws Exception {
+        AsyncLibrary async = new AsyncLibrary(library);
+        Receipt first = async.borrowItem("Pi", DVD, user("buck")).get().value;
+        async.borrowItem("Pi", DVD, user("buck")).get();
+
+        CompletableFuture<Result<Receipt>> hold = async.placeHold("Pi", DVD, user("roo"));
+        assertThat(async.placeHold("Pi", VHS, user("roo")).get().outcome, equalTo(NOT_FOUND));
+
+        async.returnItem(first.item).get();
+        assertThat(hold.get().value.item.uniqueId, equalTo(first.item.uniqueId));
+    }
+
+    @Test
+    public void cancellingAHoldGivesUpThePlaceInTheQueue() throws Exception {
+        AsyncLibrary async = new AsyncLibrary(library);
+        Receipt first = async.borrowItem("Pi", DVD, user("buck")).get().value;
+        async.borrowItem("Pi", DVD, user("buck")).get();
+
+        CompletableFuture<Result<Receipt>> hold = async.placeHold("Pi", DVD, user("roo"));
+        async.availableCopies("Pi", DVD).get();
+        hold.cancel(false);
+
+        async.returnItem(first.item).get();
+        assertThat(async.availableCopies("Pi", DVD).get().value, equalTo(1));
+        assertThat(async.borrowedItems(user("roo")).get(), equalTo(emptyList()));
+    }
+
+    @Test
+    public void aHoldForSomeoneWhoReachedTheirLimitWhileTheyWaitedComesBackAsAResult() throws Exception {
+        Library limited = Library.builder(fixed(now(), systemDefault()))
+                .add(dvd("1", "7", "Pi"))
+                .add(dvd("2", "4", "Heat"))
+                .loanPolicy(LoanPolicy.standard().borrowLimit(1))
+                .build();
+        AsyncLibrary async = new AsyncLibrary(limited);
+        Receipt pi = async.borrowItem("Pi", DVD, user("buck")).get().value;
+
+        CompletableFuture<Result<Receipt>> hold = async.placeHold("Pi", DVD, user("roo"));
+        async.borrowItem("Heat", DVD, user("roo")).get();
+        async.returnItem(pi.item).get();
+
+        assertThat(hold.get().outcome, equalTo(LIMIT_REACHED));
+        assertThat(async.availableCopies("Pi", DVD).get().value, equalTo(1));
+    }
+
+    @Test
+    public void everyAsyncLibraryWithoutAnExecutorSharesTheSameOne() {
+        assertThat(AsyncLibrary.defaultExecutor() == AsyncLibrary.defaultExecutor(), equalTo(true));
+    }
+
+    @Test
+    public void everyCallRunsOnTheExecutorWeGiveIt() throws Exception {
+        AtomicInteger ran = new AtomicInteger();
+        Executor counting = task -> {
+            ran.incrementAndGet();
+            task.run();
+        };
+        AsyncLibrary async = new AsyncLibrary(library, counting);
+
+        async.borrowItems(singletonList(BasketItem.basketItem("Pi", DVD)), user("buck")).get();
+        async.availableCopies("Pi", DVD).get();
+        async.currentInventory().get();
+
+        assertThat(ran.get(), equalTo(3));
+    }
+}
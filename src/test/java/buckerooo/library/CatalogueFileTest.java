@@ -0,0 +1,95 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static buckerooo.library.Item.book;
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.Item.vhs;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.User.user;
+import static java.time.Clock.systemUTC;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CatalogueFileTest {
+
+    @Test
+    public void aLibraryLoadedFromTheFileHasTheSameInventory() throws Exception {
+        List<Item> itemsInTheLibrary = asList(
+                dvd("1", "7", "Pi"),
+                book("3", "4", "Introduction to Algorithms"),
+                dvd("2", "7", "Pi"),
+                vhs("4", "5", "WarGames"),
+                book("5", "8", "Pi"),
+                book("6", "9", "Les Mis\u00e9rables"));
+
+        Path file = Files.createTempFile("catalogue", ".bin");
+        CatalogueFile.write(file, itemsInTheLibrary);
+        Library library = CatalogueFile.read(file, Library.builder(systemUTC())).build();
+
+        assertThat(rows(library.currentInventory()), equalTo(rows(new Library(systemUTC(), itemsInTheLibrary).currentInventory())));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(2));
+        assertThat(library.borrowItem("Pi", DVD, user("buck")).item.title, equalTo("Pi"));
+    }
+
+    @Test
+    public void everyCopyOfATitleSharesItsStrings() throws Exception {
+        Path file = Files.createTempFile("catalogue", ".bin");
+        CatalogueFile.write(file, asList(dvd("1", "7", "Pi"), dvd("2", "7", "Pi"), dvd("3", "7", "Pi")));
+
+        List<Item> inventory = CatalogueFile.read(file, Library.builder(systemUTC())).build().currentInventory();
+
+        assertThat(inventory.get(2).title, sameInstance(inventory.get(0).title));
+        assertThat(inventory.get(2).bookId, sameInstance(inventory.get(0).bookId));
+    }
+
+    @Test(expected = IOException.class)
+    public void wontLoadAFileThatIsntACatalogue() throws Exception {
+        Path file = Files.createTempFile("catalogue", ".bin");
+        Files.write(file, "1,7,DVD,Pi\n".getBytes("UTF-8"));
+
+        CatalogueFile.read(file, Library.builder(systemUTC()));
+    }
+
+    @Test
+    public void aCutShortOrCorruptFileSaysWhereItWentWrong() throws Exception {
+        Path file = Files.createTempFile("catalogue", ".bin");
+        CatalogueFile.write(file, asList(dvd("1", "7", "Pi"), dvd("2", "7", "Pi"), vhs("3", "5", "WarGames")));
+        byte[] whole = Files.readAllBytes(file);
+
+        for (int length = 20; length < whole.length; length++) {
+            Files.write(file, Arrays.copyOf(whole, length));
+            try {
+                CatalogueFile.read(file, Library.builder(systemUTC()));
+                fail("a file cut short at " + length + " bytes should not load");
+            } catch (IOException e) {
+                assertThat(e.getMessage(), e.getMessage().contains(" is corrupt at offset "), equalTo(true));
+            }
+        }
+
+        byte[] corrupt = whole.clone();
+        ByteBuffer.wrap(corrupt).putInt(8, 1_000_000);
+        Files.write(file, corrupt);
+        try {
+            CatalogueFile.read(file, Library.builder(systemUTC()));
+            fail("the header says there are more strings than the file has");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo(file + " is corrupt at offset 20, the offsets of 1000000 strings needs 4000004 bytes but the file ends at " + whole.length));
+        }
+    }
+
+    private static List<String> rows(List<Item> items) {
+        return items.stream().map(item -> item.uniqueId + "," + item.bookId + "," + item.type + "," + item.title).collect(toList());
+    }
+}
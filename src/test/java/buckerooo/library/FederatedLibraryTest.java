@@ -0,0 +1,263 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static buckerooo.library.BasketItem.basketItem;
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.User.user;
+import static java.time.Clock.fixed;
+import static java.time.Instant.now;
+import static java.time.ZoneId.systemDefault;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class FederatedLibraryTest {
+
+    @Test
+    public void borrowsFromTheNearestBranchWithACopyIn() throws Exception {
+        Clock clock = fixed(now(), systemDefault());
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", new Library(clock, asList(dvd("n1", "1", "Jaws"))))
+                .branch("east", new Library(clock, asList(dvd("e1", "1", "Jaws"))))
+                .branch("south", new Library(clock, asList(dvd("s1", "1", "Jaws"), dvd("s2", "2", "Alien"))))
+                .distance("south", "east", 1)
+                .distance("south", "north", 5)
+                .distance("north", "east", 3)
+                .build();
+
+        assertThat(library.borrowItem("south", "Alien", DVD, user("buck")).item.uniqueId, equalTo("s2"));
+        assertThat(library.borrowItem("south", "Jaws", DVD, user("buck")).item.uniqueId, equalTo("s1"));
+        assertThat(library.borrowItem("south", "Jaws", DVD, user("buck")).item.uniqueId, equalTo("e1"));
+        assertThat(library.borrowItem("south", "Jaws", DVD, user("buck")).item.uniqueId, equalTo("n1"));
+        assertThat(library.availableCopies("Jaws", DVD), equalTo(0));
+
+        try {
+            library.borrowItem("south", "Jaws", DVD, user("buck"));
+            fail("every copy of Jaws should be out");
+        } catch (ItemOutOfStockException e) {
+            assertThat(e.getMessage(), equalTo("The Jaws DVD is currently out of stock"));
+        }
+
+        try {
+            library.borrowItem("south", "Heat", DVD, user("buck"));
+            fail("no branch has Heat");
+        } catch (ItemNotFoundException e) {
+            assertThat(e.getMessage(), equalTo("Could not find the DVD, Heat, you want to borrow"));
+        }
+    }
+
+    @Test
+    public void copiesGoBackToTheirOwnBranchAndNewOnesCanBeBorrowed() throws Exception {
+        Clock clock = fixed(now(), systemDefault());
+        Library north = new Library(clock, asList(dvd("n1", "1", "Jaws")));
+        Library south = new Library(clock, asList(dvd("s1", "2", "Alien")));
+        FederatedLibrary library = FederatedLibrary.builder().branch("north", north).branch("south", south).build();
+
+        Receipt receipt = library.borrowItem("north", "Alien", DVD, user("buck"));
+        assertThat(library.branchOf(receipt.item), equalTo("south"));
+        assertThat(south.availableCopies("Alien", DVD), equalTo(0));
+
+        library.returnItem(receipt.item);
+        assertThat(south.availableCopies("Alien", DVD), equalTo(1));
+
+        assertThat(library.addItems("south", asList(dvd("s2", "1", "Jaws"))), equalTo(1));
+        library.borrowItem("south", "Jaws", DVD, user("buck"));
+        assertThat(library.borrowItem("south", "Jaws", DVD, user("buck")).item.uniqueId, equalTo("n1"));
+    }
+
+    @Test
+    public void aBasketCanBeFilledFromSeveralBranchesOrNotAtAll() throws Exception {
+        Clock clock = fixed(now(), systemDefault());
+        List<String> lent = new ArrayList<>();
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", Library.builder(clock).add(dvd("n1", "1", "Jaws")).listener(recordingLoansIn(lent)).build())
+                .branch("south", Library.builder(clock).add(dvd("s1", "2", "Alien")).listener(recordingLoansIn(lent)).build())
+                .build();
+
+        List<Receipt> receipts = library.borrowItems("north", asList(basketItem("Alien", DVD), basketItem("Jaws", DVD)), user("buck"));
+        assertThat(receipts.get(0).item.uniqueId, equalTo("s1"));
+        assertThat(receipts.get(1).item.uniqueId, equalTo("n1"));
+
+        library.returnItem(receipts.get(0).item);
+        lent.clear();
+        try {
+            library.borrowItems("north", asList(basketItem("Alien", DVD), basketItem("Jaws", DVD)), user("someone else"));
+            fail("Jaws should be out");
+        } catch (ItemOutOfStockException e) {
+            assertThat(lent, equalTo(emptyList()));
+            assertThat(library.borrowedItems(user("someone else")), equalTo(emptyList()));
+            assertThat(library.availableCopies("Alien", DVD), equalTo(1));
+        }
+    }
+
+    @Test
+    public void aBasketThatFailsPartWayThroughLendingHandsBackWhatItLent() throws Exception {
+        Clock clock = fixed(now(), systemDefault());
+        List<String> lent = new ArrayList<>();
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", Library.builder(clock).add(dvd("n1", "1", "Jaws")).listener(recordingLoansIn(lent)).build())
+                .branch("south", Library.builder(clock).add(dvd("s1", "2", "Alien")).listener(new LoanListener() {
+                    @Override
+                    public void borrowed(Item item, User user, long borrowedAt) {
+                        throw new IllegalStateException("the south branch is down");
+                    }
+
+                    @Override
+                    public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+                    }
+                }).build())
+                .build();
+
+        try {
+            library.borrowItems("north", asList(basketItem("Jaws", DVD), basketItem("Alien", DVD)), user("buck"));
+            fail("the south branch should have failed");
+        } catch (IllegalStateException e) {
+            assertThat(lent, equalTo(asList("borrowed n1", "returned n1")));
+            assertThat(library.borrowedItems(user("buck")), equalTo(emptyList()));
+            assertThat(library.inventoryCount(), equalTo(2L));
+        }
+    }
+
+    @Test
+    public void eachBranchKeepsItsOwnBorrowLimit() throws Exception {
+        Clock clock = fixed(now(), systemDefault());
+        LoanPolicy onlyOne = LoanPolicy.standard().borrowLimit(1);
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", Library.builder(clock).add(dvd("n1", "1", "Jaws")).add(dvd("n2", "2", "Alien")).loanPolicy(onlyOne).build())
+                .branch("south", Library.builder(clock).add(dvd("s1", "1", "Jaws")).loanPolicy(onlyOne).build())
+                .build();
+
+        assertThat(library.borrowItem("north", "Jaws", DVD, user("buck")).item.uniqueId, equalTo("n1"));
+        try {
+            library.borrowItem("north", "Alien", DVD, user("buck"));
+            fail("buck already has a copy out from north");
+        } catch (BorrowLimitException e) {
+            assertThat(library.availableCopies("Alien", DVD), equalTo(1));
+        }
+        assertThat(library.borrowItem("north", "Jaws", DVD, user("buck")).item.uniqueId, equalTo("s1"));
+        assertThat(library.borrowedItems(user("buck")).size(), equalTo(2));
+    }
+
+    @Test
+    public void aBranchTheUserIsAtTheLimitOfIsPassedOverForTheNextNearest() throws Exception {
+        Clock clock = fixed(now(), systemDefault());
+        LoanPolicy onlyOne = LoanPolicy.standard().borrowLimit(1);
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", Library.builder(clock).add(dvd("n1", "1", "Jaws")).add(dvd("n2", "1", "Jaws")).add(dvd("n3", "2", "Alien")).loanPolicy(onlyOne).build())
+                .branch("south", Library.builder(clock).add(dvd("s1", "1", "Jaws")).add(dvd("s2", "2", "Alien")).loanPolicy(onlyOne).build())
+                .build();
+
+        library.borrowItem("north", "Jaws", DVD, user("buck"));
+        assertThat(library.borrowItem("north", "Jaws", DVD, user("buck")).item.uniqueId, equalTo("s1"));
+        try {
+            library.borrowItem("north", "Jaws", DVD, user("buck"));
+            fail("buck is at the limit of both branches");
+        } catch (BorrowLimitException e) {
+            assertThat(library.availableCopies("Jaws", DVD), equalTo(1));
+        }
+
+        /* north still has Alien in, but the Jaws already takes up all roo may have from there */
+        List<Receipt> receipts = library.borrowItems("north", asList(basketItem("Jaws", DVD), basketItem("Alien", DVD)), user("roo"));
+        assertThat(library.branchOf(receipts.get(0).item), equalTo("north"));
+        assertThat(receipts.get(1).item.uniqueId, equalTo("s2"));
+    }
+
+    private LoanListener recordingLoansIn(List<String> loans) {
+        return new LoanListener() {
+            @Override
+            public void borrowed(Item item, User user, long borrowedAt) {
+                loans.add("borrowed " + item.uniqueId);
+            }
+
+            @Override
+            public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+                loans.add("returned " + item.uniqueId);
+            }
+        };
+    }
+
+    @Test
+    public void queriesAboutTheWholeCatalogueAskEveryBranch() throws Exception {
+        MoveableClock clock = new MoveableClock();
+        List<Item> northItems = titles("n", 20);
+        List<Item> southItems = titles("s", 20);
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", new Library(clock, northItems))
+                .branch("south", new Library(clock, southItems))
+                .build();
+
+        List<Item> everything = new ArrayList<>(northItems);
+        everything.addAll(southItems);
+        assertThat(new HashSet<>(library.currentInventory()), equalTo(new HashSet<>(everything)));
+        assertThat(library.inventoryCount(), equalTo(40L));
+
+        List<Item> borrowed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            borrowed.add(library.borrowItem("north", "title " + i, DVD, user("buck")).item);
+            borrowed.add(library.borrowItem("south", "title " + i, DVD, user("buck")).item);
+        }
+        assertThat(new HashSet<>(library.borrowedItems(user("buck"))), equalTo(new HashSet<>(borrowed)));
+
+        clock.moveForward(8, DAYS);
+        library.borrowItem("title 15", DVD, user("buck"));
+        assertThat(new HashSet<>(library.overdueItems()), equalTo(new HashSet<>(borrowed)));
+        assertThat(library.inventoryCount(), equalTo(19L));
+    }
+
+    @Test
+    public void aHoldIsFilledFromAnyBranchWithACopyInBeforeItWaits() throws Exception {
+        Clock clock = fixed(now(), systemDefault());
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", new Library(clock, asList(dvd("n1", "1", "Jaws"))))
+                .branch("south", new Library(clock, asList(dvd("s1", "1", "Jaws"))))
+                .distance("north", "south", 1)
+                .build();
+        library.borrowItem("north", "Jaws", DVD, user("someone else"));
+
+        CompletableFuture<Receipt> hold = library.placeHold("north", "Jaws", DVD, user("buck"));
+        assertThat(hold.getNow(null).item.uniqueId, equalTo("s1"));
+
+        /* nothing is in now, so the next hold waits at the nearest branch */
+        CompletableFuture<Receipt> waiting = library.placeHold("north", "Jaws", DVD, user("roo"));
+        assertThat(waiting.isDone(), equalTo(false));
+        library.returnItem(library.borrowedItems(user("someone else")).get(0));
+        assertThat(waiting.getNow(null).item.uniqueId, equalTo("n1"));
+    }
+
+    @Test
+    public void theOverdueItemsFromEveryBranchComeSoonestDueFirst() throws Exception {
+        MoveableClock clock = new MoveableClock();
+        FederatedLibrary library = FederatedLibrary.builder()
+                .branch("north", new Library(clock, titles("n", 10)))
+                .branch("south", new Library(clock, titles("s", 10)))
+                .build();
+
+        List<Item> borrowed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            borrowed.add(library.borrowItem(i % 2 == 0 ? "south" : "north", "title " + i, DVD, user("buck")).item);
+            clock.moveForward(1, DAYS);
+        }
+        clock.moveForward(7, DAYS);
+
+        assertThat(library.overdueItems(), equalTo(borrowed));
+    }
+
+    private List<Item> titles(String branch, int titles) {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < titles; i++) {
+            items.add(dvd(branch + i, String.valueOf(i), "title " + i));
+        }
+        return items;
+    }
+}
@@ -8,13 +8,16 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import static buckerooo.library.ItemType.Book;
 import static java.time.Clock.fixed;
 import static java.time.Instant.now;
 import static java.time.ZoneId.systemDefault;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
 
 public class LibraryLoadTest {
     @Test
-    public void loadUpTheLibrary() {
+    public void loadUpTheLibrary() throws Exception {
         List<Item> items = new ArrayList<>();
 
         for (int i = 0; i < 1_000_000; i++) {
@@ -24,5 +27,22 @@ public class LibraryLoadTest {
 
 
         Library library = new Library(fixed(now(), systemDefault()), items);
+
+        assertThat(library.inventoryCount(), equalTo(1_000_000L));
+        assertThat(library.availableCopies("999999", Book), equalTo(1));
+    }
+
+    @Test
+    public void loadUpTheLibraryOneItemAtATime() throws Exception {
+        Library.Builder builder = Library.builder(fixed(now(), systemDefault()));
+
+        for (int i = 0; i < 1_000_000; i++) {
+            builder.add(String.valueOf(i), String.valueOf(i / 10), Book, "title " + (i / 10));
+        }
+
+        Library library = builder.build();
+
+        assertThat(library.availableCopies("title 0", Book), equalTo(10));
+        assertThat(library.availableCopies("title 99999", Book), equalTo(10));
     }
 }
@@ -0,0 +1,119 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.User.user;
+import static java.time.Clock.systemUTC;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LibrarySnapshotTest {
+
+    @Test
+    public void aSnapshotKeepsTheLibraryAsItWasWhenItWasTaken() throws Exception {
+        MoveableClock clock = new MoveableClock();
+        Item pi = dvd("1", "7", "Pi");
+        Item heat = dvd("2", "4", "Heat");
+        Item jaws = dvd("3", "5", "Jaws");
+        Library library = new Library(clock, asList(pi, heat, jaws));
+
+        library.borrowItem("Pi", DVD, user("buck"));
+        clock.moveForward(8, DAYS);
+        library.borrowItem("Heat", DVD, user("roo"));
+
+        LibrarySnapshot snapshot = library.snapshot();
+        library.returnItem(pi);
+        library.borrowItem("Jaws", DVD, user("buck"));
+        library.borrowItem("Pi", DVD, user("roo"));
+
+        assertThat(snapshot.currentInventory(), equalTo(asList(jaws)));
+        assertThat(snapshot.inventoryCount(), equalTo(1L));
+        assertThat(snapshot.loansOut(), equalTo(2));
+        assertThat(snapshot.overdueItems(), equalTo(asList(pi)));
+        assertThat(snapshot.borrowedItems(user("buck")), equalTo(asList(pi)));
+        assertThat(snapshot.borrowedItems(user("roo")), equalTo(asList(heat)));
+        assertThat(snapshot.borrowedItems(user("nobody")), equalTo(emptyList()));
+
+        LibrarySnapshot later = library.snapshot();
+        assertThat(later.currentInventory(), equalTo(emptyList()));
+        assertThat(later.overdueItems(), equalTo(emptyList()));
+        assertThat(later.borrowedItems(user("roo")), equalTo(asList(pi, heat)));
+    }
+
+    /*
+     * everyone may only have one copy out, and hands it back before borrowing the next. a report that read each
+     * copy at a different moment could catch someone with both, a snapshot never does
+     */
+    @Test
+    public void aSnapshotNeverCatchesSomeoneBetweenTwoLoans() throws Exception {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            items.add(dvd(String.valueOf(i), String.valueOf(i), "title " + i));
+        }
+        Library library = Library.builder(systemUTC())
+                .addAll(items)
+                .loanPolicy(LoanPolicy.standard().borrowLimit(1))
+                .build();
+
+        int borrowers = 4;
+        AtomicBoolean reporting = new AtomicBoolean(true);
+        ExecutorService executor = newFixedThreadPool(borrowers);
+        List<Future<?>> lending = new ArrayList<>();
+        for (int borrower = 0; borrower < borrowers; borrower++) {
+            User user = user("borrower " + borrower);
+            lending.add(executor.submit(() -> {
+                Receipt receipt = null;
+                while (reporting.get()) {
+                    if (receipt != null) {
+                        library.returnItem(receipt.item);
+                        receipt = null;
+                    }
+                    try {
+                        receipt = library.borrowItem("title " + ThreadLocalRandom.current().nextInt(items.size()), DVD, user);
+                    } catch (ItemOutOfStockException e) {
+                        /* someone else has it, try another */
+                    }
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (int report = 0; report < 200; report++) {
+                LibrarySnapshot snapshot = library.snapshot();
+                Set<Item> borrowed = new HashSet<>();
+                for (int borrower = 0; borrower < borrowers; borrower++) {
+                    List<Item> theirs = snapshot.borrowedItems(user("borrower " + borrower));
+                    assertThat(theirs.size() <= 1, equalTo(true));
+                    borrowed.addAll(theirs);
+                }
+                assertThat(snapshot.loansOut(), equalTo(borrowed.size()));
+                assertThat(snapshot.inventoryCount() + borrowed.size(), equalTo((long) items.size()));
+                Set<Item> inventory = new HashSet<>(snapshot.currentInventory());
+                inventory.retainAll(borrowed);
+                assertThat(inventory, equalTo(new HashSet<>()));
+            }
+        } finally {
+            reporting.set(false);
+            for (Future<?> borrower : lending) {
+                borrower.get();
+            }
+            executor.shutdown();
+        }
+    }
+}
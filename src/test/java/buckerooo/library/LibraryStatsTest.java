@@ -0,0 +1,97 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+
+import static buckerooo.library.BasketItem.basketItem;
+import static buckerooo.library.Item.book;
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.ItemType.Book;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.ItemType.VHS;
+import static buckerooo.library.User.user;
+import static java.time.Clock.fixed;
+import static java.time.Instant.now;
+import static java.time.ZoneId.systemDefault;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryStatsTest {
+
+    @Test
+    public void countsWhatHappenedToEachTypeOfItem() throws Exception {
+        LibraryStats stats = new LibraryStats();
+        Library library = Library.builder(fixed(now(), systemDefault()))
+                .addAll(asList(dvd("1", "7", "Pi"), book("2", "4", "Introduction to Algorithms")))
+                .metrics(stats)
+                .build();
+
+        Receipt receipt = library.borrowItem("Pi", DVD, user("buck"));
+        expectFailure(() -> library.borrowItem("Pi", DVD, user("roo")));
+        expectFailure(() -> library.borrowItem("Pi", VHS, user("roo")));
+        expectFailure(() -> library.borrowItems(asList(basketItem("Introduction to Algorithms", Book), basketItem("Pi", DVD)), user("roo")));
+        library.returnItem(receipt.item);
+        library.overdueItems();
+
+        assertThat(stats.borrowed(DVD), equalTo(1L));
+        assertThat(stats.outOfStock(DVD), equalTo(1L));
+        assertThat(stats.notFound(VHS), equalTo(1L));
+        assertThat(stats.returned(DVD), equalTo(1L));
+        assertThat(stats.borrowed(Book), equalTo(0L));
+        assertThat(stats.basketsRefused(), equalTo(1L));
+        assertThat(stats.borrowLatency.count(), equalTo(2L));
+        assertThat(stats.overdueScanLatency.count(), equalTo(1L));
+    }
+
+    @Test
+    public void contentionIsLostRacesPerBorrowOrReturn() throws Exception {
+        LibraryStats stats = new LibraryStats();
+        stats.borrowed(DVD, 100);
+        stats.outOfStock(Book, 100);
+        stats.returned(DVD, 100);
+        stats.returned(VHS, 100);
+        stats.lostRace();
+
+        assertThat(stats.lostRaces(), equalTo(1L));
+        assertThat(stats.contention(), equalTo(0.25));
+    }
+
+    @Test
+    public void percentilesAreNeverMoreThanABucketOut() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.count(), equalTo(10_000L));
+        assertWithin(histogram.valueAtPercentile(50), 5_000);
+        assertWithin(histogram.valueAtPercentile(99), 9_900);
+        assertWithin(histogram.max(), 10_000);
+        assertThat(histogram.valueAtPercentile(0.001), equalTo(1L));
+    }
+
+    @Test
+    public void everyValueLandsInABucketThatHoldsIt() throws Exception {
+        for (long value : new long[]{0, 1, 63, 64, 65, 127, 128, 1_000_000, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.highestIn(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.highestIn(bucket - 1));
+        }
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(actual + " should be close to " + expected, actual >= expected && actual <= expected * 1.04);
+    }
+
+    private static void expectFailure(Callable<?> call) {
+        try {
+            call.call();
+        } catch (Exception expected) {
+            return;
+        }
+        throw new AssertionError("expected that to fail");
+    }
+}
@@ -0,0 +1,51 @@
+package buckerooo.library;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static buckerooo.library.StressHarness.stress;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LibraryStressTest {
+
+    @Test
+    public void manyThreadsFightingOverAFewCopies() throws Exception {
+        assertThat(stress(8, 3_000).catalogue(3, 2).run(Library::new), equalTo(emptyList()));
+    }
+
+    @Test
+    public void manyThreadsAcrossAWiderCatalogue() throws Exception {
+        assertThat(stress(8, 3_000).catalogue(200, 3).seed(7).run(Library::new), equalTo(emptyList()));
+    }
+
+    @Test
+    public void aShardedLibraryHoldsUpTheSameWay() throws Exception {
+        assertThat(stress(8, 2_000).catalogue(20, 2).run((clock, items) -> new ShardedLibrary(clock, items, 4)), equalTo(emptyList()));
+    }
+
+    @Test
+    public void aFederationOfBranchesHoldsUpTheSameWay() throws Exception {
+        assertThat(stress(8, 2_000).catalogue(20, 3).run((clock, items) -> FederatedLibrary.builder()
+                .branch("north", new Library(clock, items.subList(0, items.size() / 3)))
+                .branch("east", new Library(clock, items.subList(items.size() / 3, 2 * items.size() / 3)))
+                .branch("south", new Library(clock, items.subList(2 * items.size() / 3, items.size())))
+                .distance("north", "east", 1)
+                .build()), equalTo(emptyList()));
+    }
+
+    @Test
+    public void borrowLimitsAreOnlyEverSaidNoTo() throws Exception {
+        assertThat(stress(8, 2_000).catalogue(10, 3).run((clock, items) -> Library.builder(clock)
+                .addAll(items)
+                .loanPolicy(LoanPolicy.standard().borrowLimit(3))
+                .build()), equalTo(emptyList()));
+    }
+
+    @Test
+    @Ignore
+    public void atScale() throws Exception {
+        assertThat(stress(32, 200_000).catalogue(10_000, 5).run(Library::new), equalTo(emptyList()));
+    }
+}
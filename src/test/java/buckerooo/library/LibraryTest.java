@@ -8,9 +8,16 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static buckerooo.library.BasketItem.basketItem;
 import static buckerooo.library.ItemType.Book;
 import static buckerooo.library.Item.book;
 import static buckerooo.library.Item.dvd;
@@ -28,7 +35,10 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.nCopies;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -47,6 +57,51 @@ public class LibraryTest {
         assertThat(library.currentInventory(), equalTo(itemsInTheLibrary));
     }
 
+    @Test
+    public void canPageThroughAndCountTheInventory() throws Exception {
+        List<Item> itemsInTheLibrary = new ArrayList<>();
+        nCopiesOf("Pi", 99, itemsInTheLibrary);
+        itemsInTheLibrary.add(book("100", "4", "Introduction to Algorithms"));
+
+        Library library = new Library(systemUTC(), itemsInTheLibrary);
+        library.borrowItem("Introduction to Algorithms", Book, user("buck"));
+        for (int i = 0; i < 30; i++) {
+            library.borrowItem("Pi", DVD, user("buck"));
+        }
+
+        assertThat(library.inventoryCount(), equalTo(70L));
+        assertThat(library.inventoryCount(DVD), equalTo(70L));
+        assertThat(library.inventoryCount(Book), equalTo(0L));
+
+        List<Item> pages = new ArrayList<>();
+        for (int offset = 0; offset < 100; offset += 32) {
+            List<Item> page = library.currentInventory(offset, 32);
+            assertThat(page.size(), equalTo(Math.min(32, 70 - Math.min(offset, 70))));
+            pages.addAll(page);
+        }
+
+        assertThat(pages, equalTo(library.currentInventory()));
+        assertThat(library.streamInventory().collect(toList()), equalTo(library.currentInventory()));
+    }
+
+    @Test
+    public void aPageHasToStartAtAnItemAndHaveRoomForOne() throws Exception {
+        Library library = new Library(systemUTC(), asList(dvd("1", "7", "Pi"), dvd("2", "7", "Pi")));
+
+        try {
+            library.currentInventory(-1, 1);
+            fail("there is nothing before the first item");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("A page can't start before the first item, at -1"));
+        }
+        try {
+            library.currentInventory(0, 0);
+            fail("an empty page can't hold anything");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("A page needs room for at least one item, not 0"));
+        }
+    }
+
     @Test
     public void canBorrowAnItemFromTheLibrary() throws Exception {
 
@@ -62,7 +117,7 @@ public class LibraryTest {
 
         Receipt receipt = library.borrowItem("Introduction to Algorithms", Book, user("buck"));
 
-        assertThat(receipt.returnDate, equalTo(LocalDate.now(now)));
+        assertThat(receipt.returnDate, equalTo(LocalDate.now(now).plusDays(7)));
         assertThat(receipt.item, equalTo(itemToBeBorrowed));
     }
 
@@ -93,6 +148,160 @@ public class LibraryTest {
         assertThat(library.borrowedItems(user), equalTo(asList()));
     }
 
+    @Test
+    public void eachUserOnlySeesTheItemsTheyHaveBorrowedWhenBorrowingAtTheSameTime() throws Exception {
+        List<Item> allLibraryItems = new ArrayList<>();
+        nCopiesOf("Pi", 40, allLibraryItems);
+
+        Library library = new Library(fixed(now(), systemDefault()), allLibraryItems);
+
+        List<Callable<Receipt>> borrowers = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            User user = user("user " + (i % 4));
+            borrowers.add(() -> library.borrowItem("Pi", DVD, user));
+        }
+
+        List<Receipt> receipts = new ArrayList<>();
+        for (Future<Receipt> receipt : newFixedThreadPool(8).invokeAll(borrowers)) {
+            receipts.add(receipt.get());
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(library.borrowedItems(user("user " + i)).size(), equalTo(10));
+        }
+
+        for (Receipt receipt : receipts) {
+            library.returnItem(receipt.item);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(library.borrowedItems(user("user " + i)), equalTo(emptyList()));
+        }
+    }
+
+    @Test
+    public void canSeeHowManyCopiesOfATitleAreAvailable() throws Exception {
+        Library library = new Library(fixed(now(), systemDefault()), asList(
+                dvd("1", "7", "Pi"),
+                dvd("2", "7", "Pi"),
+                vhs("3", "5", "WarGames"))
+        );
+
+        assertThat(library.availableCopies("Pi", DVD), equalTo(2));
+
+        Receipt receipt = library.borrowItem("Pi", DVD, user("buck"));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(1));
+        assertThat(library.availableCopies("WarGames", VHS), equalTo(1));
+
+        library.returnItem(receipt.item);
+        assertThat(library.availableCopies("Pi", DVD), equalTo(2));
+    }
+
+    @Test
+    public void canBorrowAWholeBasketOfItemsAtOnce() throws Exception {
+        Item pi = dvd("1", "7", "Pi");
+        Item algorithms = book("3", "4", "Introduction to Algorithms");
+        Library library = new Library(fixed(now(), systemDefault()), asList(pi, algorithms, vhs("4", "5", "WarGames")));
+
+        List<Receipt> receipts = library.borrowItems(asList(basketItem("Pi", DVD), basketItem("Introduction to Algorithms", Book)), user("buck"));
+
+        assertThat(receipts.get(0).item, equalTo(pi));
+        assertThat(receipts.get(1).item, equalTo(algorithms));
+        assertThat(library.borrowedItems(user("buck")), equalTo(asList(pi, algorithms)));
+    }
+
+    @Test
+    public void borrowsNothingFromTheBasketIfAnyOfItIsOutOfStock() throws Exception {
+        List<Item> libraryItems = asList(dvd("1", "7", "Pi"), vhs("4", "5", "WarGames"));
+        Library library = new Library(fixed(now(), systemDefault()), libraryItems);
+
+        Receipt warGames = library.borrowItem("WarGames", VHS, user("someone else"));
+
+        try {
+            library.borrowItems(asList(basketItem("Pi", DVD), basketItem("WarGames", VHS)), user("buck"));
+            fail("WarGames should have been out of stock");
+        } catch (ItemOutOfStockException e) {
+            assertThat(e.getMessage(), equalTo("The WarGames VHS is currently out of stock"));
+        }
+
+        assertThat(library.borrowedItems(user("buck")), equalTo(emptyList()));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(1));
+
+        library.returnItem(warGames.item);
+        assertThat(library.currentInventory(), equalTo(libraryItems));
+    }
+
+    @Test
+    public void aBasketThatFailsPartWayThroughLendingHandsBackWhatItLent() throws Exception {
+        List<String> loans = new ArrayList<>();
+        AtomicBoolean journalFull = new AtomicBoolean(true);
+        Library library = Library.builder(fixed(now(), systemDefault()))
+                .add(dvd("1", "7", "Pi"))
+                .add(vhs("4", "5", "WarGames"))
+                .listener(new LoanListener() {
+                    @Override
+                    public void borrowed(Item item, User user, long borrowedAt) {
+                        if (!loans.isEmpty() && journalFull.get()) {
+                            throw new IllegalStateException("the journal is full");
+                        }
+                        loans.add("borrowed " + item.uniqueId);
+                    }
+
+                    @Override
+                    public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+                        loans.add("returned " + item.uniqueId);
+                    }
+                })
+                .loanPolicy(LoanPolicy.standard().borrowLimit(2))
+                .build();
+
+        try {
+            library.borrowItems(asList(basketItem("Pi", DVD), basketItem("WarGames", VHS)), user("buck"));
+            fail("lending WarGames should have failed");
+        } catch (IllegalStateException e) {
+            assertThat(loans, equalTo(asList("borrowed 1", "returned 1")));
+        }
+
+        assertThat(library.borrowedItems(user("buck")), equalTo(emptyList()));
+        assertThat(library.inventoryCount(), equalTo(2L));
+
+        /* none of their limit is still taken up by the basket */
+        journalFull.set(false);
+        assertThat(library.borrowItems(asList(basketItem("Pi", DVD), basketItem("WarGames", VHS)), user("buck")).size(), equalTo(2));
+    }
+
+    @Test
+    public void overlappingBasketsEitherGetEverythingOrNothing() throws Exception {
+        List<Item> allLibraryItems = new ArrayList<>();
+        nCopiesOf("Pi", 9, allLibraryItems);
+        nCopiesOf("Pi 2", 9, allLibraryItems);
+
+        Library library = new Library(fixed(now(), systemDefault()), allLibraryItems);
+
+        /* half the baskets want the titles one way round, half the other, so they keep treading on each other */
+        List<Callable<List<Receipt>>> baskets = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            List<BasketItem> basket = i % 2 == 0
+                    ? asList(basketItem("Pi", DVD), basketItem("Pi 2", DVD))
+                    : asList(basketItem("Pi 2", DVD), basketItem("Pi", DVD));
+            User user = user("user " + i);
+            baskets.add(() -> library.borrowItems(basket, user));
+        }
+
+        int filled = 0;
+        for (Future<List<Receipt>> basket : newFixedThreadPool(8).invokeAll(baskets)) {
+            try {
+                assertThat(basket.get().size(), equalTo(2));
+                filled++;
+            } catch (ExecutionException e) {
+                assertThat(e.getCause() instanceof ItemOutOfStockException, equalTo(true));
+            }
+        }
+
+        assertThat("there are 10 copies of each title so at most 10 baskets can be filled", filled <= 10, equalTo(true));
+        assertThat("every copy is either on the shelf or in a filled basket", library.currentInventory().size(), equalTo(20 - 2 * filled));
+    }
+
     @Test
     public void throwsExceptionIfWeCannotFindTheItemToBeBorrowed() throws Exception {
         Library library = new Library(fixed(now(), systemDefault()), emptyList());
@@ -137,6 +346,84 @@ public class LibraryTest {
         assertThat("item should now be back in the library", library.currentInventory(), equalTo(libraryItems));
     }
 
+    @Test
+    public void aBasketStillPutsBackWhatItCanWhenHandingBackALoanFails() throws Exception {
+        AtomicBoolean journalFull = new AtomicBoolean(true);
+        Library library = Library.builder(fixed(now(), systemDefault()))
+                .add(dvd("1", "7", "Pi"))
+                .add(vhs("4", "5", "WarGames"))
+                .add(book("3", "4", "Introduction to Algorithms"))
+                .listener(new LoanListener() {
+                    @Override
+                    public void borrowed(Item item, User user, long borrowedAt) {
+                        if (item.type == VHS && journalFull.get()) {
+                            throw new IllegalStateException("the journal is full");
+                        }
+                    }
+
+                    @Override
+                    public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+                        if (journalFull.get()) {
+                            throw new IllegalStateException("the journal is still full");
+                        }
+                    }
+                })
+                .loanPolicy(LoanPolicy.standard().borrowLimit(3))
+                .build();
+
+        try {
+            library.borrowItems(asList(basketItem("Pi", DVD), basketItem("WarGames", VHS), basketItem("Introduction to Algorithms", Book)), user("buck"));
+            fail("lending WarGames should have failed");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("the journal is full"));
+            assertThat(e.getSuppressed()[0].getMessage(), equalTo("the journal is still full"));
+        }
+
+        /* Pi couldn't be handed back so buck still has it, but the rest of the basket went back all the same */
+        assertThat(library.borrowedItems(user("buck")), equalTo(singletonList(dvd("1", "7", "Pi"))));
+        assertThat(library.availableCopies("WarGames", VHS), equalTo(1));
+        assertThat(library.availableCopies("Introduction to Algorithms", Book), equalTo(1));
+
+        journalFull.set(false);
+        assertThat(library.borrowItems(asList(basketItem("WarGames", VHS), basketItem("Introduction to Algorithms", Book)), user("buck")).size(), equalTo(2));
+    }
+
+    @Test
+    public void aReturnThatCannotBeWrittenDownLeavesTheCopyWithTheBorrower() throws Exception {
+        AtomicBoolean journalFull = new AtomicBoolean(true);
+        Library library = Library.builder(fixed(now(), systemDefault()))
+                .add(dvd("1", "7", "Pi"))
+                .listener(new LoanListener() {
+                    @Override
+                    public void borrowed(Item item, User user, long borrowedAt) {
+                    }
+
+                    @Override
+                    public void returned(Item item, User user, long borrowedAt, long returnedAt) {
+                        if (journalFull.get()) {
+                            throw new IllegalStateException("the journal is full");
+                        }
+                    }
+                })
+                .loanPolicy(LoanPolicy.standard().borrowLimit(1))
+                .build();
+        Receipt receipt = library.borrowItem("Pi", DVD, user("buck"));
+
+        try {
+            library.returnItem(receipt.item);
+            fail("the return should not have been written down");
+        } catch (IllegalStateException e) {
+            assertThat(library.borrowedItems(user("buck")), equalTo(asList(receipt.item)));
+            assertThat(library.availableCopies("Pi", DVD), equalTo(0));
+            assertThat(library.inventoryCount(), equalTo(0L));
+        }
+
+        journalFull.set(false);
+        library.returnItem(receipt.item);
+        assertThat(library.borrowedItems(user("buck")), equalTo(emptyList()));
+        assertThat(library.borrowItem("Pi", DVD, user("buck")).returnDate, equalTo(receipt.returnDate));
+    }
+
     @Test
     public void throwsExceptionIfWeTryAndReturnAItemWeDoNotKnowAbout() {
         List<Item> libraryItems = singletonList(dvd("1", "7", "Pi"));
@@ -183,6 +470,126 @@ public class LibraryTest {
         assertThat(library.overdueItems(), equalTo(asList(item1, item2)));
     }
 
+    @Test
+    public void returnedItemsAreNoLongerOverdue() throws Exception {
+        Item item1 = dvd("1", "7", "Pi");
+        Item item2 = dvd("2", "7", "Pi 2");
+
+        MoveableClock clock = new MoveableClock();
+        Library library = new Library(clock, asList(item1, item2));
+
+        library.borrowItem("Pi 2", DVD, user("buck"));
+        clock.moveForward(1, DAYS);
+        Receipt receipt = library.borrowItem("Pi", DVD, user("buck"));
+
+        clock.moveForward(9, DAYS);
+        assertThat(library.streamOverdueItems().collect(toList()), equalTo(asList(item2, item1)));
+
+        library.returnItem(receipt.item);
+        assertThat(library.streamOverdueItems().collect(toList()), equalTo(singletonList(item2)));
+    }
+
+    @Test
+    public void eachTypeCanBeKeptForItsOwnLoanPeriod() throws Exception {
+        Item dvd = dvd("1", "7", "Pi");
+        Item book = book("2", "4", "Introduction to Algorithms");
+
+        MoveableClock clock = new MoveableClock();
+        Library library = Library.builder(clock).add(dvd).add(book).loanPolicy(LoanPolicy.standard().loanPeriod(Book, 21)).build();
+        library.borrowItem("Pi", DVD, user("buck"));
+        Receipt receipt = library.borrowItem("Introduction to Algorithms", Book, user("buck"));
+        assertThat(receipt.returnDate, equalTo(LocalDate.now(clock).plusDays(21)));
+
+        clock.moveForward(8, DAYS);
+        assertThat(library.overdueItems(), equalTo(singletonList(dvd)));
+
+        clock.moveForward(14, DAYS);
+        assertThat(library.overdueItems(), equalTo(asList(dvd, book)));
+    }
+
+    @Test
+    public void noOneCanBorrowMoreThanTheirLimit() throws Exception {
+        List<Item> allLibraryItems = new ArrayList<>();
+        nCopiesOf("Pi", 10, allLibraryItems);
+        Library library = Library.builder(systemUTC()).addAll(allLibraryItems).loanPolicy(LoanPolicy.standard().borrowLimit(2)).build();
+
+        Receipt first = library.borrowItem("Pi", DVD, user("buck"));
+        try {
+            library.borrowItems(asList(basketItem("Pi", DVD), basketItem("Pi", DVD)), user("buck"));
+            fail("the basket would take buck over their limit");
+        } catch (BorrowLimitException expected) {
+            assertThat(expected.getMessage(), equalTo("buck already has 1 item(s) out, so can't borrow 2 more without going over their limit of 2"));
+        }
+        library.borrowItem("Pi", DVD, user("buck"));
+        try {
+            library.borrowItem("Pi", DVD, user("buck"));
+            fail("buck already has two out");
+        } catch (BorrowLimitException expected) {
+            assertThat(expected.getMessage(), equalTo("buck already has 2 item(s) out, so can't borrow 1 more without going over their limit of 2"));
+        }
+
+        /* someone else's limit is their own, and giving one back makes room */
+        library.borrowItem("Pi", DVD, user("roo"));
+        library.returnItem(first.item);
+        library.borrowItem("Pi", DVD, user("buck"));
+        assertThat(library.borrowedItems(user("buck")).size(), equalTo(2));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(allLibraryItems.size() - 3));
+    }
+
+    @Test
+    public void aHoldForSomeoneAtTheirLimitIsSkipped() throws Exception {
+        Library library = Library.builder(systemUTC())
+                .add(dvd("1", "7", "Pi"))
+                .add(vhs("2", "5", "WarGames"))
+                .loanPolicy(LoanPolicy.standard().borrowLimit(1))
+                .build();
+        Receipt receipt = library.borrowItem("Pi", DVD, user("roo"));
+        CompletableFuture<Receipt> buck = library.placeHold("Pi", DVD, user("buck"));
+        CompletableFuture<Receipt> wil = library.placeHold("Pi", DVD, user("wil"));
+        library.borrowItem("WarGames", VHS, user("buck"));
+
+        library.returnItem(receipt.item);
+
+        assertThat(buck.isCompletedExceptionally(), equalTo(true));
+        assertThat(wil.get().item.uniqueId, equalTo("1"));
+    }
+
+    @Test
+    public void overdueNoticesComeOncePerUserInBatches() throws Exception {
+        List<Item> allLibraryItems = new ArrayList<>();
+        nCopiesOf("Pi", 10, allLibraryItems);
+
+        MoveableClock clock = new MoveableClock();
+        Library library = new Library(clock, allLibraryItems);
+        for (int i = 0; i < 5; i++) {
+            library.borrowItem("Pi", DVD, user("user " + i));
+        }
+        clock.moveForward(2, DAYS);
+        List<Item> secondLoans = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            secondLoans.add(library.borrowItem("Pi", DVD, user("user " + i)).item);
+        }
+        library.returnItem(secondLoans.get(4));
+        clock.moveForward(8, DAYS);
+        library.borrowItem("Pi", DVD, user("on time"));
+
+        List<Integer> batchSizes = new ArrayList<>();
+        List<OverdueNotice> notices = new ArrayList<>();
+        for (Iterator<List<OverdueNotice>> batches = library.overdueNotices(2); batches.hasNext(); ) {
+            List<OverdueNotice> batch = batches.next();
+            batchSizes.add(batch.size());
+            notices.addAll(batch);
+        }
+
+        assertThat(batchSizes, equalTo(asList(2, 2, 1)));
+        notices.sort(Comparator.comparing(notice -> notice.user.username));
+        assertThat(notices.get(0).user, equalTo(user("user 0")));
+        assertThat(notices.get(0).daysOverdue, equalTo(3));
+        assertThat(notices.get(0).items.size(), equalTo(2));
+        assertThat(notices.get(0).items.get(1), equalTo(secondLoans.get(0)));
+        assertThat(notices.get(4).items.size(), equalTo(1));
+    }
+
     @Test
     public void makeSureWeOnlyGiveOutTheItemsWeHaveInTheLibrary() throws InterruptedException, ExecutionException {
 
@@ -213,6 +620,339 @@ public class LibraryTest {
         assertThat(failedAttemptsToBorrowItem, equalTo(18));
     }
 
+    @Test
+    public void aCopyIsNeverLentToTwoPeopleAtOnce() throws Exception {
+        List<Item> allLibraryItems = new ArrayList<>();
+        nCopiesOf("Pi", 3, allLibraryItems);
+
+        Library library = new Library(fixed(now(), systemDefault()), allLibraryItems);
+
+        /* who we think holds each copy, if a copy is handed out while someone still has it we have lent it twice */
+        ConcurrentMap<String, User> holders = new ConcurrentHashMap<>();
+        AtomicInteger doubleLent = new AtomicInteger();
+
+        List<Callable<Void>> borrowers = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            User user = user("user " + i);
+            borrowers.add(() -> {
+                for (int attempt = 0; attempt < 2_000; attempt++) {
+                    try {
+                        Receipt receipt = library.borrowItem("Pi", DVD, user);
+                        if (holders.putIfAbsent(receipt.item.uniqueId, user) != null) {
+                            doubleLent.incrementAndGet();
+                        }
+                        holders.remove(receipt.item.uniqueId, user);
+                        library.returnItem(receipt.item);
+                    } catch (ItemOutOfStockException ignore) {
+                        /* everything is out, try again */
+                    }
+                }
+                return null;
+            });
+        }
+
+        for (Future<Void> borrower : newFixedThreadPool(16).invokeAll(borrowers)) {
+            borrower.get();
+        }
+
+        assertThat(doubleLent.get(), equalTo(0));
+        assertThat(library.currentInventory(), equalTo(allLibraryItems));
+        assertThat(library.overdueItems(), equalTo(emptyList()));
+    }
+
+    @Test
+    public void aHoldIsHandedTheNextCopyThatComesBack() throws Exception {
+        Library library = new Library(fixed(now(), systemDefault()), singletonList(dvd("1", "7", "Pi")));
+        Receipt buckHasIt = library.borrowItem("Pi", DVD, user("buck"));
+
+        CompletableFuture<Receipt> hold = library.placeHold("Pi", DVD, user("roo"));
+        assertThat(hold.isDone(), equalTo(false));
+
+        library.returnItem(buckHasIt.item);
+
+        assertThat(hold.getNow(null).item.uniqueId, equalTo("1"));
+        assertThat(library.borrowedItems(user("roo")).size(), equalTo(1));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(0));
+        assertThat(library.currentInventory(), equalTo(emptyList()));
+    }
+
+    @Test
+    public void holdsAreFilledInTheOrderTheyWerePlacedAndCancelledOnesAreSkipped() throws Exception {
+        Library library = new Library(fixed(now(), systemDefault()), singletonList(dvd("1", "7", "Pi")));
+        Receipt receipt = library.borrowItem("Pi", DVD, user("buck"));
+
+        CompletableFuture<Receipt> first = library.placeHold("Pi", DVD, user("first"));
+        CompletableFuture<Receipt> gaveUp = library.placeHold("Pi", DVD, user("gave up"));
+        CompletableFuture<Receipt> third = library.placeHold("Pi", DVD, user("third"));
+        gaveUp.cancel(false);
+
+        library.returnItem(receipt.item);
+        assertThat(first.isDone(), equalTo(true));
+        assertThat(third.isDone(), equalTo(false));
+
+        library.returnItem(first.get().item);
+        assertThat(third.isDone(), equalTo(true));
+        assertThat(library.borrowedItems(user("gave up")), equalTo(emptyList()));
+        assertThat(library.borrowedItems(user("third")).size(), equalTo(1));
+    }
+
+    @Test
+    public void aHoldIsFilledStraightAwayWhenACopyIsIn() throws Exception {
+        Library library = new Library(fixed(now(), systemDefault()), singletonList(dvd("1", "7", "Pi")));
+
+        assertThat(library.placeHold("Pi", DVD, user("buck")).getNow(null).item.uniqueId, equalTo("1"));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(0));
+    }
+
+    @Test
+    public void everyHoldIsFilledWhenHoldersAndReturnersRace() throws Exception {
+        List<Item> allLibraryItems = new ArrayList<>();
+        nCopiesOf("Pi", 1, allLibraryItems);
+
+        Library library = new Library(fixed(now(), systemDefault()), allLibraryItems);
+
+        /* everyone waits for a copy, gives it back and waits again, if a copy is ever left on the shelf while someone waits they hang */
+        List<Callable<Void>> holders = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            User user = user("user " + i);
+            holders.add(() -> {
+                for (int attempt = 0; attempt < 500; attempt++) {
+                    library.returnItem(library.placeHold("Pi", DVD, user).get(10, SECONDS).item);
+                }
+                return null;
+            });
+        }
+
+        for (Future<Void> holder : newFixedThreadPool(8).invokeAll(holders)) {
+            holder.get();
+        }
+
+        assertThat(library.currentInventory(), equalTo(allLibraryItems));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(2));
+    }
+
+    @Test
+    public void copiesShareWhatTheyHaveInCommonAndUsersAreOnlyKeptOnce() throws Exception {
+        Library library = new Library(systemUTC(), asList(
+                dvd("1", "7", new String("Pi")),
+                dvd("2", "7", new String("Pi")),
+                dvd("3", "8", new String("Pi"))));
+
+        List<Item> inventory = library.currentInventory();
+        assertThat(inventory.get(1).title, sameInstance(inventory.get(0).title));
+        assertThat(inventory.get(2).title, sameInstance(inventory.get(0).title));
+        assertThat(inventory.get(2).bookId, equalTo("8"));
+        assertThat(inventory, equalTo(asList(dvd("1", "7", "Pi"), dvd("2", "7", "Pi"), dvd("3", "8", "Pi"))));
+
+        User buck = user("buck");
+        library.borrowItem("Pi", DVD, buck);
+        library.borrowItem("Pi", DVD, user("buck"));
+        library.borrowItem("Pi", DVD, user("roo"));
+
+        assertThat(library.userId(user("buck")), equalTo(0));
+        assertThat(library.userId(user("roo")), equalTo(1));
+        assertThat(library.user(0), sameInstance(buck));
+    }
+
+    @Test
+    public void canFindTitlesByHowTheyStartWithHowManyAreIn() throws Exception {
+        Library library = new Library(systemUTC(), asList(
+                dvd("1", "7", "Pi"),
+                dvd("2", "7", "Pi"),
+                vhs("3", "7", "Pi"),
+                book("4", "4", "Introduction to Algorithms"),
+                book("5", "8", "Pillars of the Earth"),
+                dvd("6", "9", "Pinocchio")));
+        library.borrowItem("Pi", DVD, user("buck"));
+
+        assertThat(library.titlesStartingWith("pi", 10).stream().map(TitleMatch::toString).collect(toList()), equalTo(asList(
+                "Pi (DVD) 1/2",
+                "Pi (VHS) 1/1",
+                "Pillars of the Earth (Book) 1/1",
+                "Pinocchio (DVD) 1/1")));
+        assertThat(library.titlesStartingWith("PIN", 10).size(), equalTo(1));
+        assertThat(library.titlesStartingWith("pi", 2).size(), equalTo(2));
+        assertThat(library.titlesStartingWith("war", 10), equalTo(emptyList()));
+    }
+
+    @Test
+    public void canFindTitlesByTheWordsInThem() throws Exception {
+        Library library = new Library(systemUTC(), asList(
+                book("1", "4", "Introduction to Algorithms"),
+                book("2", "5", "Algorithms"),
+                book("3", "6", "The Algorithm Design Manual"),
+                book("4", "7", "An Introduction to Statistical Learning"),
+                dvd("5", "8", "Pi")));
+
+        assertThat(titles(library.searchTitles("algorithms", 10)), equalTo(asList("Algorithms", "Introduction to Algorithms")));
+        assertThat(titles(library.searchTitles("introduction, ALGORITHMS", 10)), equalTo(asList("Introduction to Algorithms")));
+        assertThat(titles(library.searchTitles("to introduction", 10)), equalTo(asList("An Introduction to Statistical Learning", "Introduction to Algorithms")));
+        assertThat(library.searchTitles("algorithms python", 10), equalTo(emptyList()));
+        assertThat(library.searchTitles("  ", 10), equalTo(emptyList()));
+    }
+
+    @Test
+    public void titlesWithEveryCopyWithdrawnDontTakeUpPlacesInTheResults() throws Exception {
+        Library library = new Library(systemUTC(), asList(
+                book("1", "4", "Algorithms"),
+                book("2", "5", "Algorithms Illuminated"),
+                book("3", "6", "Algorithms to Live By")));
+        library.addItems(asList(book("4", "7", "Algorithms Unlocked"), book("5", "8", "Algorithms in a Nutshell")));
+
+        library.withdrawItems(asList(book("1", "4", "Algorithms"), book("4", "7", "Algorithms Unlocked")));
+
+        assertThat(titles(library.titlesStartingWith("algorithms", 2)), equalTo(asList("Algorithms Illuminated", "Algorithms in a Nutshell")));
+        assertThat(titles(library.searchTitles("algorithms", 2)), equalTo(asList("Algorithms Illuminated", "Algorithms in a Nutshell")));
+        assertThat(titles(library.searchTitles("algorithms", 10)), equalTo(asList("Algorithms Illuminated", "Algorithms in a Nutshell", "Algorithms to Live By")));
+    }
+
+    @Test
+    public void copiesCanBeAddedAndWithdrawnWhileTheLibraryIsOpen() throws Exception {
+        Library library = new Library(systemUTC(), asList(
+                dvd("1", "7", "Pi"),
+                book("2", "4", "Introduction to Algorithms")));
+
+        assertThat(library.addItems(asList(dvd("1", "7", "Pi"), dvd("3", "7", "Pi"), vhs("4", "5", "WarGames"))), equalTo(2));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(2));
+        assertThat(library.availableCopies("WarGames", VHS), equalTo(1));
+        assertThat(titles(library.titlesStartingWith("war", 10)), equalTo(asList("WarGames")));
+        assertThat(library.borrowItem("WarGames", VHS, user("buck")).item.uniqueId, equalTo("4"));
+
+        library.withdrawItem(book("2", "4", "Introduction to Algorithms"));
+        assertThat(library.titlesStartingWith("intro", 10), equalTo(emptyList()));
+        assertThat(library.inventoryCount(), equalTo(2L));
+        try {
+            library.withdrawItem(book("2", "4", "Introduction to Algorithms"));
+            fail("a copy can only be withdrawn once");
+        } catch (ItemNotFoundException expected) {
+        }
+
+        /* withdrawing makes room in the index, adding the same id again is a new copy */
+        assertThat(library.addItems(singletonList(book("2", "4", "Introduction to Algorithms"))), equalTo(1));
+        assertThat(library.availableCopies("Introduction to Algorithms", Book), equalTo(1));
+    }
+
+    @Test
+    public void aTitleWithEveryCopyWithdrawnCanNoLongerBeFound() throws Exception {
+        Library library = new Library(systemUTC(), asList(dvd("1", "7", "Pi"), book("2", "4", "Introduction to Algorithms")));
+        library.withdrawItem(book("2", "4", "Introduction to Algorithms"));
+
+        try {
+            library.availableCopies("Introduction to Algorithms", Book);
+            fail("every copy has been withdrawn");
+        } catch (ItemNotFoundException expected) {
+        }
+        try {
+            library.borrowItem("Introduction to Algorithms", Book, user("buck"));
+            fail("every copy has been withdrawn");
+        } catch (ItemNotFoundException e) {
+            assertThat(e.getMessage(), equalTo("Could not find the Book, Introduction to Algorithms, you want to borrow"));
+        }
+        try {
+            library.borrowItems(asList(basketItem("Pi", DVD), basketItem("Introduction to Algorithms", Book)), user("buck"));
+            fail("every copy has been withdrawn");
+        } catch (ItemNotFoundException expected) {
+        }
+        try {
+            library.placeHold("Introduction to Algorithms", Book, user("buck"));
+            fail("nobody should be left waiting for a copy that will never come");
+        } catch (ItemNotFoundException expected) {
+        }
+        assertThat(library.availableCopies("Pi", DVD), equalTo(1));
+    }
+
+    @Test
+    public void holdsAreTurnedAwayWhenTheLastCopyIsRetired() throws Exception {
+        Library library = new Library(systemUTC(), singletonList(dvd("1", "7", "Pi")));
+        Receipt receipt = library.borrowItem("Pi", DVD, user("buck"));
+        CompletableFuture<Receipt> hold = library.placeHold("Pi", DVD, user("roo"));
+
+        library.withdrawItem(receipt.item);
+        assertThat(hold.isDone(), equalTo(false));
+        library.returnItem(receipt.item);
+
+        try {
+            hold.get(1, SECONDS);
+            fail("the hold should have been turned away");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), equalTo("Could not find the DVD, Pi, you want to borrow"));
+        }
+        assertThat(library.borrowedItems(user("roo")), equalTo(emptyList()));
+    }
+
+    @Test
+    public void aBatchOfCopiesWeAlreadyHaveAddsNoTitles() throws Exception {
+        Library library = new Library(systemUTC(), singletonList(dvd("1", "7", "Pi")));
+
+        assertThat(library.addItems(singletonList(dvd("1", "7", "Pi 2"))), equalTo(0));
+
+        List<String> titles = new ArrayList<>();
+        library.forEachTitle((title, type) -> titles.add(title));
+        assertThat(titles, equalTo(singletonList("Pi")));
+        try {
+            library.borrowItem("Pi 2", DVD, user("buck"));
+            fail("no copy of Pi 2 was added");
+        } catch (ItemNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void aBorrowedCopyIsWithdrawnWhenItComesBack() throws Exception {
+        Library library = new Library(systemUTC(), asList(dvd("1", "7", "Pi"), dvd("2", "7", "Pi")));
+        Receipt receipt = library.borrowItem("Pi", DVD, user("buck"));
+
+        assertThat(library.withdrawItems(asList(receipt.item, dvd("99", "7", "Pi"))), equalTo(1));
+        assertThat(library.borrowedItems(user("buck")), equalTo(singletonList(receipt.item)));
+
+        library.borrowItem("Pi", DVD, user("roo"));
+        CompletableFuture<Receipt> hold = library.placeHold("Pi", DVD, user("roo"));
+        library.returnItem(receipt.item);
+
+        assertThat(hold.isDone(), equalTo(false));
+        assertThat(library.borrowedItems(user("buck")), equalTo(emptyList()));
+        assertThat(library.availableCopies("Pi", DVD), equalTo(0));
+        assertThat(library.inventoryCount(), equalTo(0L));
+        assertThat(library.titlesStartingWith("pi", 10).get(0).copies, equalTo(1));
+    }
+
+    @Test
+    public void copiesAddedWhileOthersAreBorrowedCanAllBeBorrowed() throws Exception {
+        List<Item> allLibraryItems = new ArrayList<>();
+        nCopiesOf("Pi", 10, allLibraryItems);
+        Library library = new Library(fixed(now(), systemDefault()), allLibraryItems);
+
+        ExecutorService executor = newFixedThreadPool(4);
+        List<Future<?>> borrowers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User user = user("user " + i);
+            borrowers.add(executor.submit(() -> {
+                for (int attempt = 0; attempt < 2000; attempt++) {
+                    library.returnItem(library.borrowItem("Pi", DVD, user).item);
+                }
+                return null;
+            }));
+        }
+        for (int batch = 0; batch < 50; batch++) {
+            List<Item> copies = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                copies.add(dvd("added " + batch + "/" + i, "7", "Pi"));
+            }
+            assertThat(library.addItems(copies), equalTo(100));
+        }
+        for (Future<?> borrower : borrowers) {
+            borrower.get();
+        }
+        executor.shutdown();
+
+        Set<String> borrowed = new HashSet<>();
+        Receipt receipt;
+        while (library.availableCopies("Pi", DVD) > 0) {
+            receipt = library.borrowItem("Pi", DVD, user("buck"));
+            assertThat(borrowed.add(receipt.item.uniqueId), equalTo(true));
+        }
+        assertThat(borrowed.size(), equalTo(allLibraryItems.size() + 50 * 100));
+    }
+
     @Test
     @Ignore
     public void borrowAndReturnALargeAmountOfItems() throws InterruptedException {
@@ -265,6 +1005,10 @@ public class LibraryTest {
         assertThat(library.currentInventory().size(), equalTo(allLibraryItems.size()));
     }
 
+    private static List<String> titles(List<TitleMatch> matches) {
+        return matches.stream().map(match -> match.title).collect(toList());
+    }
+
     private void nCopiesOf(String title, int numberOfCopies, List<Item> allLibraryItems) {
         int currentItemsSize = allLibraryItems.size();
         for (int i = allLibraryItems.size(); i <= currentItemsSize + numberOfCopies; i++) {
@@ -0,0 +1,105 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static buckerooo.library.Item.book;
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.ItemType.Book;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.User.user;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LoanHistoryTest {
+
+    @Test
+    public void finishedLoansAreKeptWithWhenTheyWentOutAndCameBack() throws Exception {
+        MoveableClock clock = new MoveableClock();
+        LoanHistory history = LoanHistory.history(7, 3);
+        Library library = Library.builder(clock)
+                .addAll(asList(dvd("1", "7", "Pi"), book("2", "4", "Dune")))
+                .history(history)
+                .build();
+        LocalDate firstDay = LocalDate.now(clock);
+
+        Receipt pi = library.borrowItem("Pi", DVD, user("buck"));
+        Receipt dune = library.borrowItem("Dune", Book, user("roo"));
+        clock.moveForward(3, DAYS);
+        library.returnItem(pi.item);
+        clock.moveForward(2, DAYS);
+        library.returnItem(dune.item);
+        library.borrowItem("Pi", DVD, user("roo"));
+
+        List<String> loans = new ArrayList<>();
+        history.forEachLoan((item, user, borrowed, returned) -> loans.add(item.uniqueId + " " + user.username + " " + borrowed + " " + returned));
+        assertThat(loans, equalTo(asList(
+                "1 buck " + firstDay + " " + firstDay.plusDays(3),
+                "2 roo " + firstDay + " " + firstDay.plusDays(5))));
+        assertThat(history.finishedLoans(), equalTo(2));
+        assertThat(history.meanLoanDays(), equalTo(4.0));
+        assertThat(history.meanLoanDays(DVD), equalTo(3.0));
+    }
+
+    @Test
+    public void borrowsAreCountedForEachTitleOnEachOfTheLastFewDays() throws Exception {
+        MoveableClock clock = new MoveableClock();
+        LoanHistory history = LoanHistory.history(3, 3);
+        Library library = Library.builder(clock)
+                .addAll(asList(dvd("1", "7", "Pi"), dvd("2", "4", "Heat")))
+                .history(history)
+                .build();
+        LocalDate firstDay = LocalDate.now(clock);
+
+        borrowAndReturn(library, "Pi", 2);
+        borrowAndReturn(library, "Heat", 1);
+        clock.moveForward(1, DAYS);
+        borrowAndReturn(library, "Pi", 1);
+
+        assertThat(history.borrowsOn("Pi", DVD, firstDay), equalTo(2L));
+        assertThat(history.borrowsOn("Pi", DVD, firstDay.plusDays(1)), equalTo(1L));
+        assertThat(history.borrowsOn("Heat", DVD, firstDay), equalTo(1L));
+        assertThat(history.borrowsOn("Jaws", DVD, firstDay), equalTo(0L));
+        assertThat(history.recentBorrows("Pi", DVD), equalTo(3L));
+
+        /* three days on the first day has gone out of the window, and its place in the ring is reused */
+        clock.moveForward(2, DAYS);
+        borrowAndReturn(library, "Pi", 4);
+        assertThat(history.borrowsOn("Pi", DVD, firstDay), equalTo(0L));
+        assertThat(history.borrowsOn("Pi", DVD, firstDay.plusDays(3)), equalTo(4L));
+        assertThat(history.recentBorrows("Pi", DVD), equalTo(5L));
+        assertThat(history.recentBorrows("Heat", DVD), equalTo(0L));
+    }
+
+    @Test
+    public void theMostBorrowedTitlesAreKeptMostFirst() throws Exception {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            items.add(dvd(String.valueOf(i), String.valueOf(i), "title " + i));
+        }
+        LoanHistory history = LoanHistory.history(7, 3);
+        Library library = Library.builder(new MoveableClock()).addAll(items).history(history).build();
+
+        /* the busiest titles are borrowed last, so they have to push the early ones out */
+        for (int i = 0; i < 50; i++) {
+            borrowAndReturn(library, "title " + i, i + 1);
+        }
+
+        List<String> top = new ArrayList<>();
+        for (PopularTitle title : history.topTitles()) {
+            top.add(title.toString());
+        }
+        assertThat(top, equalTo(asList("title 49 (DVD) 50", "title 48 (DVD) 49", "title 47 (DVD) 48")));
+    }
+
+    private void borrowAndReturn(Library library, String title, int times) throws Exception {
+        for (int i = 0; i < times; i++) {
+            library.returnItem(library.borrowItem(title, DVD, user("buck")).item);
+        }
+    }
+}
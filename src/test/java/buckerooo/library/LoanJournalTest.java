@@ -0,0 +1,178 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static buckerooo.library.Item.book;
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.ItemType.Book;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.User.user;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LoanJournalTest {
+    private final List<Item> itemsInTheLibrary = asList(
+            dvd("1", "7", "Pi"),
+            dvd("2", "7", "Pi"),
+            book("3", "4", "Introduction to Algorithms"),
+            book("4", "4", "Introduction to Algorithms"));
+
+    private final MoveableClock clock = new MoveableClock();
+
+    @Test
+    public void theLoansAreStillOutAfterARestart() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+
+        LoanJournal journal = LoanJournal.open(directory, 4096);
+        Library library = library(journal);
+        library.borrowItem("Pi", DVD, user("buck"));
+        clock.moveForward(8, DAYS);
+        Receipt returned = library.borrowItem("Introduction to Algorithms", Book, user("buck"));
+        library.borrowItem("Introduction to Algorithms", Book, user("roo"));
+        library.returnItem(returned.item);
+        journal.close();
+
+        Library restarted = library(LoanJournal.open(directory, 4096));
+
+        assertThat(ids(restarted.borrowedItems(user("buck"))), equalTo(ids(library.borrowedItems(user("buck")))));
+        assertThat(ids(restarted.borrowedItems(user("roo"))), equalTo(ids(library.borrowedItems(user("roo")))));
+        assertThat(restarted.availableCopies("Pi", DVD), equalTo(1));
+        assertThat(restarted.availableCopies("Introduction to Algorithms", Book), equalTo(1));
+        assertThat(restarted.overdueItems().size(), equalTo(1));
+        assertThat(restarted.overdueItems().get(0).type, equalTo(DVD));
+    }
+
+    @Test
+    public void aSnapshotAndWhatHappenedAfterItComeBackTogether() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+
+        LoanJournal journal = LoanJournal.open(directory, 4096);
+        Library library = library(journal);
+        Receipt beforeTheSnapshot = library.borrowItem("Pi", DVD, user("buck"));
+        library.borrowItem("Introduction to Algorithms", Book, user("buck"));
+        journal.snapshot();
+        library.returnItem(beforeTheSnapshot.item);
+        library.borrowItem("Introduction to Algorithms", Book, user("roo"));
+        journal.snapshot();
+        library.borrowItem("Pi", DVD, user("roo"));
+        journal.close();
+
+        /* only the last snapshot, and the segments it replays from, are kept */
+        assertThat(files(directory, "snapshot-*").size(), equalTo(1));
+        assertThat(files(directory, "journal-*").size(), equalTo(2));
+
+        Library restarted = library(LoanJournal.open(directory, 4096));
+
+        assertThat(ids(restarted.borrowedItems(user("buck"))), equalTo(ids(library.borrowedItems(user("buck")))));
+        assertThat(ids(restarted.borrowedItems(user("roo"))), equalTo(ids(library.borrowedItems(user("roo")))));
+        assertThat(restarted.inventoryCount(), equalTo(1L));
+    }
+
+    @Test
+    public void keepsGoingIntoANewSegmentWhenOneFillsUp() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+
+        LoanJournal journal = LoanJournal.open(directory, 256);
+        Library library = library(journal);
+        for (int i = 0; i < 50; i++) {
+            library.returnItem(library.borrowItem("Pi", DVD, user("buck " + i)).item);
+        }
+        library.borrowItem("Pi", DVD, user("roo"));
+        journal.close();
+
+        Library restarted = library(LoanJournal.open(directory, 256));
+
+        assertThat(ids(restarted.borrowedItems(user("roo"))), equalTo(ids(library.borrowedItems(user("roo")))));
+        assertThat(restarted.availableCopies("Pi", DVD), equalTo(1));
+    }
+
+    @Test
+    public void aRecordThatWasOnlyHalfWrittenIsLeftOut() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+
+        LoanJournal journal = LoanJournal.open(directory, 4096);
+        Library library = library(journal);
+        library.borrowItem("Pi", DVD, user("buck"));
+        library.borrowItem("Introduction to Algorithms", Book, user("roo"));
+        journal.close();
+
+        /* scribble over the end of the last record, as if we crashed halfway through writing it */
+        Path segment = files(directory, "journal-*").get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        int last = bytes.length - 1;
+        while (bytes[last] == 0) {
+            last--;
+        }
+        bytes[last] ^= 0x7F;
+        Files.write(segment, bytes);
+
+        Library restarted = library(LoanJournal.open(directory, 4096));
+
+        assertThat(restarted.borrowedItems(user("buck")).size(), equalTo(1));
+        assertThat(restarted.borrowedItems(user("roo")).size(), equalTo(0));
+        assertThat(restarted.availableCopies("Introduction to Algorithms", Book), equalTo(2));
+    }
+
+    @Test
+    public void aSnapshotLeftHalfWrittenByACrashDoesNotStopTheNextOne() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        Files.write(directory.resolve("snapshot.tmp"), new byte[]{1, 2, 3});
+
+        LoanJournal journal = LoanJournal.open(directory, 4096);
+        Library library = library(journal);
+        library.borrowItem("Pi", DVD, user("buck"));
+        journal.snapshot();
+        journal.snapshot();
+        journal.close();
+
+        assertThat(files(directory, "snapshot*").size(), equalTo(1));
+        assertThat(files(directory, "journal-*").size(), equalTo(2));
+        assertThat(library(LoanJournal.open(directory, 4096)).borrowedItems(user("buck")).size(), equalTo(1));
+    }
+
+    @Test
+    public void scheduledSnapshotsKeepBeingTakenAfterOneFails() throws Exception {
+        /* nothing is using the journal yet, so every snapshot fails */
+        LoanJournal journal = LoanJournal.open(Files.createTempDirectory("journal"), 4096);
+        CountDownLatch failures = new CountDownLatch(3);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            journal.snapshotEvery(1, MILLISECONDS, executor, failure -> failures.countDown());
+            assertThat(failures.await(10, SECONDS), equalTo(true));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Library library(LoanJournal journal) {
+        return Library.builder(clock).addAll(itemsInTheLibrary).journal(journal).build();
+    }
+
+    private static List<String> ids(List<Item> items) {
+        return items.stream().map(item -> item.uniqueId).sorted().collect(toList());
+    }
+
+    private static List<Path> files(Path directory, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> matching = Files.newDirectoryStream(directory, glob)) {
+            matching.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+}
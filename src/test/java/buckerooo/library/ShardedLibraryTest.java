@@ -0,0 +1,173 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static buckerooo.library.BasketItem.basketItem;
+import static buckerooo.library.Item.dvd;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.User.user;
+import static java.time.Clock.fixed;
+import static java.time.Instant.now;
+import static java.time.ZoneId.systemDefault;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ShardedLibraryTest {
+
+    @Test
+    public void theInventoryIsEveryShardsInventoryPutTogether() throws Exception {
+        List<Item> itemsInTheLibrary = titles(50);
+        ShardedLibrary library = new ShardedLibrary(fixed(now(), systemDefault()), itemsInTheLibrary, 4);
+
+        assertThat(new HashSet<>(library.currentInventory()), equalTo(new HashSet<>(itemsInTheLibrary)));
+        assertThat(library.inventoryCount(), equalTo(50L));
+
+        Receipt receipt = library.borrowItem("title 7", DVD, user("buck"));
+        assertThat(library.inventoryCount(), equalTo(49L));
+        assertThat(library.availableCopies("title 7", DVD), equalTo(0));
+        assertThat(library.borrowedItems(user("buck")), equalTo(asList(receipt.item)));
+
+        library.returnItem(receipt.item);
+        assertThat(library.inventoryCount(), equalTo(50L));
+        assertThat(library.borrowedItems(user("buck")), equalTo(emptyList()));
+    }
+
+    @Test
+    public void aBasketAcrossShardsComesBackInBasketOrder() throws Exception {
+        ShardedLibrary library = new ShardedLibrary(fixed(now(), systemDefault()), titles(50), 4);
+
+        List<BasketItem> basket = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            basket.add(basketItem("title " + i, DVD));
+        }
+
+        List<Receipt> receipts = library.borrowItems(basket, user("buck"));
+        for (int i = 0; i < 20; i++) {
+            assertThat(receipts.get(i).item.title, equalTo("title " + i));
+        }
+    }
+
+    @Test
+    public void aBasketThatCannotBeFilledLeavesEveryShardAsItWas() throws Exception {
+        ShardedLibrary library = new ShardedLibrary(fixed(now(), systemDefault()), titles(50), 4);
+        library.borrowItem("title 19", DVD, user("someone else"));
+
+        List<BasketItem> basket = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            basket.add(basketItem("title " + i, DVD));
+        }
+
+        try {
+            library.borrowItems(basket, user("buck"));
+            fail("title 19 should have been out of stock");
+        } catch (ItemOutOfStockException e) {
+            assertThat(e.getMessage(), equalTo("The title 19 DVD is currently out of stock"));
+        }
+
+        assertThat(library.borrowedItems(user("buck")), equalTo(emptyList()));
+        assertThat(library.inventoryCount(), equalTo(49L));
+    }
+
+    @Test
+    public void canGetTheOverdueItemsFromEveryShard() throws Exception {
+        MoveableClock clock = new MoveableClock();
+        ShardedLibrary library = new ShardedLibrary(clock, titles(50), 4);
+
+        List<Item> borrowed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            borrowed.add(library.borrowItem("title " + i, DVD, user("buck")).item);
+        }
+
+        clock.moveForward(8, DAYS);
+        library.borrowItem("title 20", DVD, user("buck"));
+
+        assertThat(new HashSet<>(library.overdueItems()), equalTo(new HashSet<>(borrowed)));
+    }
+
+    @Test
+    public void theOverdueItemsFromEveryShardComeSoonestDueFirst() throws Exception {
+        MoveableClock clock = new MoveableClock();
+        ShardedLibrary library = new ShardedLibrary(clock, titles(50), 4);
+
+        List<Item> borrowed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            borrowed.add(library.borrowItem("title " + i, DVD, user("buck")).item);
+            clock.moveForward(1, DAYS);
+        }
+        clock.moveForward(7, DAYS);
+
+        assertThat(library.overdueItems(), equalTo(borrowed));
+    }
+
+    @Test
+    public void aBasketOverTheBorrowLimitBorrowsNothingFromAnyShard() throws Exception {
+        ShardedLibrary library = new ShardedLibrary(fixed(now(), systemDefault()), titles(50), 4, LoanPolicy.standard().borrowLimit(5));
+        library.borrowItem("title 30", DVD, user("buck"));
+
+        List<BasketItem> basket = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            basket.add(basketItem("title " + i, DVD));
+        }
+
+        try {
+            library.borrowItems(basket, user("buck"));
+            fail("buck can only have five out");
+        } catch (BorrowLimitException e) {
+            assertThat(e.getMessage(), equalTo("buck already has 1 item(s) out, so can't borrow 5 more without going over their limit of 5"));
+        }
+
+        assertThat(library.borrowedItems(user("buck")).size(), equalTo(1));
+        assertThat(library.inventoryCount(), equalTo(49L));
+        assertThat(library.borrowItems(basket.subList(0, 4), user("buck")).size(), equalTo(4));
+    }
+
+    @Test
+    public void everyShardLendsUnderTheLoanPolicyItIsGiven() throws Exception {
+        List<Item> items = titles(50);
+        items.add(dvd("50", "0", "title 0"));
+        ShardedLibrary library = new ShardedLibrary(fixed(now(), systemDefault()), items, 4, LoanPolicy.standard().borrowLimit(1));
+
+        library.borrowItem("title 0", DVD, user("buck"));
+        try {
+            library.borrowItem("title 0", DVD, user("buck"));
+            fail("buck can only have one out");
+        } catch (BorrowLimitException e) {
+            assertThat(library.availableCopies("title 0", DVD), equalTo(1));
+        }
+    }
+
+    @Test
+    public void theBorrowLimitCoversEveryShardTogether() throws Exception {
+        ShardedLibrary library = new ShardedLibrary(fixed(now(), systemDefault()), titles(50), 8, LoanPolicy.standard().borrowLimit(3));
+
+        int borrowed = 0;
+        for (int i = 0; i < 8; i++) {
+            try {
+                library.borrowItem("title " + i, DVD, user("buck"));
+                borrowed++;
+            } catch (BorrowLimitException e) {
+                assertThat(e.getMessage(), equalTo("buck already has 3 item(s) out, so can't borrow 1 more without going over their limit of 3"));
+            }
+        }
+
+        assertThat(borrowed, equalTo(3));
+        assertThat(library.borrowedItems(user("buck")).size(), equalTo(3));
+        assertThat(library.inventoryCount(), equalTo(47L));
+    }
+
+    private List<Item> titles(int titles) {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < titles; i++) {
+            items.add(dvd(String.valueOf(i), String.valueOf(i), "title " + i));
+        }
+        return items;
+    }
+}
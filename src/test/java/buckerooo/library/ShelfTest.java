@@ -0,0 +1,90 @@
+package buckerooo.library;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ShelfTest {
+
+    @Test
+    public void onlyTakesCopiesFromTheRangeAskedFor() {
+        Shelf shelf = shelfWith(200);
+
+        Set<Integer> taken = new HashSet<>();
+        int slot;
+        while ((slot = shelf.takeAny(60, 130, 100)) >= 0) {
+            assertThat("slot " + slot + " is outside the range", slot >= 60 && slot < 130, equalTo(true));
+            taken.add(slot);
+        }
+
+        assertThat(taken.size(), equalTo(70));
+        assertThat(shelf.isOnTheShelf(59), equalTo(true));
+        assertThat(shelf.isOnTheShelf(130), equalTo(true));
+    }
+
+    @Test
+    public void looksFromTheStartThenWrapsRound() {
+        Shelf shelf = shelfWith(128);
+
+        assertThat(shelf.takeAny(0, 128, 70), equalTo(70));
+        assertThat(shelf.takeAny(0, 128, 127), equalTo(127));
+        assertThat(shelf.takeAny(0, 128, 127), equalTo(0));
+    }
+
+    @Test
+    public void aCopyPutBackCanBeTakenAgain() {
+        Shelf shelf = shelfWith(64);
+        for (int i = 0; i < 64; i++) {
+            shelf.takeAny(0, 64, 0);
+        }
+        assertThat(shelf.takeAny(0, 64, 0), equalTo(-1));
+
+        shelf.putBack(63);
+        assertThat(shelf.isOnTheShelf(63), equalTo(true));
+        assertThat(shelf.takeAny(0, 64, 0), equalTo(63));
+    }
+
+    @Test
+    public void canWalkTheCopiesOnTheShelfInOrder() {
+        Shelf shelf = new Shelf(300);
+        shelf.putBack(3);
+        shelf.putBack(64);
+        shelf.putBack(299);
+
+        assertThat(shelf.nextOnTheShelf(4), equalTo(64));
+        assertThat(shelf.nextOnTheShelf(65), equalTo(299));
+        assertThat(shelf.nthOnTheShelf(2), equalTo(299));
+        assertThat(shelf.nthOnTheShelf(3), equalTo(-1));
+        assertThat(shelf.slotsOnTheShelf(0).boxed().collect(toList()), equalTo(asList(3, 64, 299)));
+    }
+
+    @Test
+    public void growingKeepsWhatIsOnTheShelfAndTakesAcrossChunks() {
+        Shelf shelf = shelfWith(10);
+        assertThat(shelf.isOnTheShelf(5000), equalTo(false));
+
+        shelf.grow(5000);
+        shelf.putBack(4095);
+        shelf.putBack(4096);
+
+        assertThat(shelf.isOnTheShelf(9), equalTo(true));
+        assertThat(shelf.nextOnTheShelf(10), equalTo(4095));
+        assertThat(shelf.takeAny(4000, 4200, 4050), equalTo(4095));
+        assertThat(shelf.takeAny(4000, 4200, 4050), equalTo(4096));
+        assertThat(shelf.takeAny(4000, 4200, 4050), equalTo(-1));
+    }
+
+    private Shelf shelfWith(int copies) {
+        Shelf shelf = new Shelf(copies);
+        for (int i = 0; i < copies; i++) {
+            shelf.putBack(i);
+        }
+        return shelf;
+    }
+}
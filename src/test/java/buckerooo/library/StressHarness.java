@@ -0,0 +1,447 @@
+package buckerooo.library;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+import static buckerooo.library.BasketItem.basketItem;
+import static buckerooo.library.ItemType.DVD;
+import static buckerooo.library.User.user;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/*
+ * drives any LendingLibrary from many threads at once with a random mix of calls, writes down when each call
+ * started and finished and what it got back, then checks the history once everyone has stopped.
+ *
+ * every thread borrows as its own user and only returns what it borrowed, so what a user has is known exactly.
+ * the checks only complain about things no ordering of the overlapping calls could explain:
+ *
+ *   - a copy lent to a second borrower before the first had started giving it back
+ *   - out of stock while some copy of the title was on the shelf for the whole call
+ *   - an overdue item that nobody could have had out during the call
+ *   - a user's borrowed items not being what they borrowed and haven't returned
+ *   - counts out of range during the run, and afterwards copies lost, doubled, or counted in the wrong place
+ *
+ * the clock runs a day for every real millisecond, so loans go overdue while it runs.
+ */
+class StressHarness {
+    private static final int MOST_VIOLATIONS = 20;
+
+    private final int threads;
+    private final int operationsPerThread;
+    private int titles = 10;
+    private int copiesPerTitle = 2;
+    private long seed = 42;
+
+    private StressHarness(int threads, int operationsPerThread) {
+        this.threads = threads;
+        this.operationsPerThread = operationsPerThread;
+    }
+
+    static StressHarness stress(int threads, int operationsPerThread) {
+        return new StressHarness(threads, operationsPerThread);
+    }
+
+    StressHarness catalogue(int titles, int copiesPerTitle) {
+        this.titles = titles;
+        this.copiesPerTitle = copiesPerTitle;
+        return this;
+    }
+
+    StressHarness seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /* what went wrong, empty if nothing did */
+    List<String> run(BiFunction<Clock, List<Item>, ? extends LendingLibrary> libraryFor) throws Exception {
+        List<Item> catalogue = new ArrayList<>();
+        for (int title = 0; title < titles; title++) {
+            for (int copy = 0; copy < copiesPerTitle; copy++) {
+                catalogue.add(Item.dvd(title + "/" + copy, String.valueOf(title), title(title)));
+            }
+        }
+        LendingLibrary library = libraryFor.apply(new FastClock(), catalogue);
+        History history = new History();
+
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService executor = newFixedThreadPool(threads);
+        List<Future<List<Item>>> workers = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            Worker worker = new Worker(thread, library, history);
+            workers.add(executor.submit(() -> {
+                start.await();
+                return worker.run();
+            }));
+        }
+
+        Map<User, List<Item>> stillOut = new HashMap<>();
+        for (int thread = 0; thread < threads; thread++) {
+            stillOut.put(userFor(thread), workers.get(thread).get());
+        }
+        executor.shutdown();
+
+        history.checkLoans();
+        checkAtRest(library, catalogue, stillOut, history);
+
+        for (List<Item> items : stillOut.values()) {
+            for (Item item : items) {
+                library.returnItem(item);
+            }
+            items.clear();
+        }
+        checkAtRest(library, catalogue, stillOut, history);
+        if (!library.overdueItems().isEmpty()) {
+            history.violation("everything is back but " + library.overdueItems() + " are still overdue");
+        }
+        return history.violations;
+    }
+
+    /* nothing is moving, so every count has to agree exactly */
+    private void checkAtRest(LendingLibrary library, List<Item> catalogue, Map<User, List<Item>> stillOut, History history) throws Exception {
+        List<Item> inventory = library.currentInventory();
+        Set<String> seen = new HashSet<>();
+        for (Item item : inventory) {
+            if (!seen.add(item.uniqueId)) {
+                history.violation(item.uniqueId + " is in the inventory twice");
+            }
+        }
+        for (Map.Entry<User, List<Item>> out : stillOut.entrySet()) {
+            for (Item item : out.getValue()) {
+                if (!seen.add(item.uniqueId)) {
+                    history.violation(item.uniqueId + " is lent to " + out.getKey().username + " but also in the inventory or lent to someone else");
+                }
+            }
+            if (!ids(library.borrowedItems(out.getKey())).equals(ids(out.getValue()))) {
+                history.violation(out.getKey().username + " should have " + ids(out.getValue()) + " but the library says " + ids(library.borrowedItems(out.getKey())));
+            }
+        }
+        if (!seen.equals(ids(catalogue))) {
+            history.violation("the inventory and the loans add up to " + seen.size() + " copies instead of " + catalogue.size());
+        }
+        if (library.inventoryCount() != inventory.size()) {
+            history.violation("inventoryCount() is " + library.inventoryCount() + " but the inventory has " + inventory.size());
+        }
+
+        Map<String, Integer> onTheShelf = new HashMap<>();
+        for (Item item : inventory) {
+            onTheShelf.merge(item.title, 1, Integer::sum);
+        }
+        for (int title = 0; title < titles; title++) {
+            int expected = onTheShelf.getOrDefault(title(title), 0);
+            if (library.availableCopies(title(title), DVD) != expected) {
+                history.violation(title(title) + " has " + library.availableCopies(title(title), DVD) + " available copies but " + expected + " in the inventory");
+            }
+        }
+    }
+
+    private static Set<String> ids(List<Item> items) {
+        Set<String> ids = new HashSet<>();
+        for (Item item : items) {
+            ids.add(item.uniqueId);
+        }
+        return ids;
+    }
+
+    private static String title(int title) {
+        return "title " + title;
+    }
+
+    private static User userFor(int thread) {
+        return user("stress " + thread);
+    }
+
+    /* one thread's share of the run, it keeps what it has out to itself */
+    private class Worker {
+        private final LendingLibrary library;
+        private final History history;
+        private final User user;
+        private final Random random;
+        private final List<Item> held = new ArrayList<>();
+
+        private Worker(int thread, LendingLibrary library, History history) {
+            this.library = library;
+            this.history = history;
+            this.user = userFor(thread);
+            this.random = new Random(seed + thread);
+        }
+
+        private List<Item> run() throws Exception {
+            for (int operation = 0; operation < operationsPerThread; operation++) {
+                int roll = random.nextInt(100);
+                if (roll < 35 || (roll < 80 && held.isEmpty())) {
+                    borrow();
+                } else if (roll < 45) {
+                    borrowBasket();
+                } else if (roll < 80) {
+                    giveBack();
+                } else if (roll < 87) {
+                    availableCopies();
+                } else if (roll < 92) {
+                    inventoryCount();
+                } else if (roll < 96) {
+                    borrowedItems();
+                } else {
+                    overdueItems();
+                }
+            }
+            return held;
+        }
+
+        private void borrow() throws Exception {
+            String title = title(random.nextInt(titles));
+            long start = System.nanoTime();
+            try {
+                Receipt receipt = library.borrowItem(title, DVD, user);
+                history.borrowed(receipt.item, user, start, System.nanoTime());
+                held.add(receipt.item);
+            } catch (ItemOutOfStockException e) {
+                history.outOfStock(Collections.singletonList(title), false, start, System.nanoTime());
+            } catch (BorrowLimitException e) {
+                /* a library with limits is allowed to say no, that isn't a mistake */
+            }
+        }
+
+        private void borrowBasket() throws Exception {
+            int first = random.nextInt(titles);
+            int second = titles == 1 ? first : (first + 1 + random.nextInt(titles - 1)) % titles;
+            List<String> basket = titles == 1 ? Collections.singletonList(title(first)) : Arrays.asList(title(first), title(second));
+
+            List<BasketItem> items = new ArrayList<>();
+            for (String title : basket) {
+                items.add(basketItem(title, DVD));
+            }
+            long start = System.nanoTime();
+            try {
+                List<Receipt> receipts = library.borrowItems(items, user);
+                long end = System.nanoTime();
+                for (Receipt receipt : receipts) {
+                    history.borrowed(receipt.item, user, start, end);
+                    held.add(receipt.item);
+                }
+            } catch (ItemOutOfStockException e) {
+                history.outOfStock(basket, true, start, System.nanoTime());
+            } catch (BorrowLimitException e) {
+                /* as for a single borrow */
+            }
+        }
+
+        private void giveBack() throws Exception {
+            Item item = held.remove(random.nextInt(held.size()));
+            long start = System.nanoTime();
+            library.returnItem(item);
+            history.returned(item, user, start, System.nanoTime());
+        }
+
+        private void availableCopies() throws Exception {
+            String title = title(random.nextInt(titles));
+            int available = library.availableCopies(title, DVD);
+            if (available < 0 || available > copiesPerTitle) {
+                history.violation(title + " had " + available + " available copies out of " + copiesPerTitle);
+            }
+        }
+
+        private void inventoryCount() {
+            long count = library.inventoryCount();
+            if (count < 0 || count > (long) titles * copiesPerTitle) {
+                history.violation("inventoryCount() was " + count + " out of " + titles * copiesPerTitle);
+            }
+        }
+
+        /* nobody else borrows or returns as this user, so it has to be exactly what we hold */
+        private void borrowedItems() {
+            Set<String> borrowed = ids(library.borrowedItems(user));
+            if (!borrowed.equals(ids(held))) {
+                history.violation(user.username + " holds " + ids(held) + " but borrowedItems() said " + borrowed);
+            }
+        }
+
+        private void overdueItems() {
+            long start = System.nanoTime();
+            List<Item> overdue = library.overdueItems();
+            history.overdue(overdue, start, System.nanoTime());
+        }
+    }
+
+    /* every call that changed or claimed something about a loan, with when it started and finished */
+    private class History {
+        private final List<String> violations = Collections.synchronizedList(new ArrayList<>());
+        private final Map<String, List<Possession>> possessionsByCopy = new HashMap<>();
+        private final List<Claim> outOfStock = new ArrayList<>();
+        private final List<Claim> overdue = new ArrayList<>();
+
+        private synchronized void borrowed(Item item, User user, long start, long end) {
+            possessionsByCopy.computeIfAbsent(item.uniqueId, id -> new ArrayList<>()).add(new Possession(user, start, end));
+        }
+
+        /* only the borrower returns, so it's their loan of the copy that hasn't come back yet */
+        private synchronized void returned(Item item, User user, long start, long end) {
+            for (Possession possession : possessionsByCopy.get(item.uniqueId)) {
+                if (user.equals(possession.user) && possession.returnEnd == Long.MAX_VALUE) {
+                    possession.returnStart = start;
+                    possession.returnEnd = end;
+                    return;
+                }
+            }
+        }
+
+        private synchronized void outOfStock(List<String> titles, boolean basket, long start, long end) {
+            outOfStock.add(new Claim(titles, start, end));
+            /* a basket that gave up may have had copies off the shelf for a moment, other borrowers can see that */
+            if (basket) {
+                for (String title : titles) {
+                    for (int copy = 0; copy < copiesPerTitle; copy++) {
+                        String uniqueId = title.substring("title ".length()) + "/" + copy;
+                        Possession maybe = new Possession(null, start, end);
+                        maybe.returnStart = end;
+                        maybe.returnEnd = end;
+                        possessionsByCopy.computeIfAbsent(uniqueId, id -> new ArrayList<>()).add(maybe);
+                    }
+                }
+            }
+        }
+
+        private synchronized void overdue(List<Item> items, long start, long end) {
+            List<String> ids = new ArrayList<>();
+            for (Item item : items) {
+                ids.add(item.uniqueId);
+            }
+            overdue.add(new Claim(ids, start, end));
+        }
+
+        private void violation(String violation) {
+            if (violations.size() < MOST_VIOLATIONS) {
+                violations.add(violation);
+            }
+        }
+
+        private void checkLoans() {
+            for (Map.Entry<String, List<Possession>> copy : possessionsByCopy.entrySet()) {
+                List<Possession> loans = new ArrayList<>();
+                for (Possession possession : copy.getValue()) {
+                    if (possession.user != null) {
+                        loans.add(possession);
+                    }
+                }
+                loans.sort((a, b) -> Long.compare(a.borrowEnd, b.borrowEnd));
+                for (int i = 1; i < loans.size(); i++) {
+                    if (loans.get(i - 1).returnStart >= loans.get(i).borrowEnd) {
+                        violation(copy.getKey() + " was lent to " + loans.get(i).user.username + " while " + loans.get(i - 1).user.username + " still had it");
+                    }
+                }
+            }
+
+            for (Claim claim : outOfStock) {
+                boolean couldAllHaveBeenOut = false;
+                for (String title : claim.ids) {
+                    boolean allOfTitleCouldBeOut = true;
+                    String id = title.substring("title ".length());
+                    for (int copy = 0; copy < copiesPerTitle; copy++) {
+                        allOfTitleCouldBeOut &= couldHaveBeenOut(id + "/" + copy, claim);
+                    }
+                    couldAllHaveBeenOut |= allOfTitleCouldBeOut;
+                }
+                if (!couldAllHaveBeenOut) {
+                    violation(claim.ids + " said out of stock while a copy was on the shelf the whole time");
+                }
+            }
+
+            for (Claim claim : overdue) {
+                for (String id : claim.ids) {
+                    if (!couldHaveBeenOut(id, claim)) {
+                        violation(id + " was said to be overdue when nobody had it");
+                    }
+                }
+            }
+        }
+
+        /* some loan of the copy overlaps the claim, from when its borrow started to when its return finished */
+        private boolean couldHaveBeenOut(String uniqueId, Claim claim) {
+            for (Possession possession : possessionsByCopy.getOrDefault(uniqueId, Collections.emptyList())) {
+                if (possession.borrowStart < claim.end && possession.returnEnd > claim.start) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /* a copy somebody had, or might have had. the return times stay at the end of time until it comes back */
+    private static class Possession {
+        private final User user;
+        private final long borrowStart;
+        private final long borrowEnd;
+        private long returnStart = Long.MAX_VALUE;
+        private long returnEnd = Long.MAX_VALUE;
+
+        private Possession(User user, long borrowStart, long borrowEnd) {
+            this.user = user;
+            this.borrowStart = borrowStart;
+            this.borrowEnd = borrowEnd;
+        }
+    }
+
+    /* a call that said something about which copies were out */
+    private static class Claim {
+        private final List<String> ids;
+        private final long start;
+        private final long end;
+
+        private Claim(List<String> ids, long start, long end) {
+            this.ids = ids;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /* a day goes by every real millisecond */
+    private static class FastClock extends Clock {
+        private final long startNanos;
+        private final long startMillis;
+        private final ZoneId zone;
+
+        private FastClock() {
+            this(System.nanoTime(), System.currentTimeMillis(), ZoneId.systemDefault());
+        }
+
+        private FastClock(long startNanos, long startMillis, ZoneId zone) {
+            this.startNanos = startNanos;
+            this.startMillis = startMillis;
+            this.zone = zone;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        /* the same fast time, only seen from another zone */
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return new FastClock(startNanos, startMillis, zone);
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public long millis() {
+            return startMillis + (System.nanoTime() - startNanos) * 86_400L / 1_000L;
+        }
+    }
+}